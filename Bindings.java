@@ -0,0 +1,87 @@
+// Reusable values for the variables of an expression
+// Every variable has a fixed slot, resolve the slot of a name once with slotOf and set values by slot after that
+// Setting values and evaluating with them doesn't allocate, box or hash anything
+public final class Bindings {
+
+	private final String[] names;
+	private final double[] values;
+	private final boolean[] bound;
+	private int unboundCount;
+
+	// Created through Expression.newBindings()
+	Bindings(String[] names) {
+		this.names = names;
+		this.values = new double[names.length];
+		this.bound = new boolean[names.length];
+		this.unboundCount = names.length;
+	}
+
+	// Returns the slot of a variable or -1 if the expression doesn't have it
+	public int slotOf(String name) {
+		for (int i = 0; i < this.names.length; i++)
+			if (this.names[i].equals(name))
+				return i;
+		return -1;
+	}
+
+	public int size() {
+		return this.names.length;
+	}
+
+	public String getName(int slot) {
+		return this.names[slot];
+	}
+
+	public double get(int slot) {
+		return this.values[slot];
+	}
+
+	public Bindings set(int slot, double value) {
+		if (!this.bound[slot]) {
+			this.bound[slot] = true;
+			this.unboundCount--;
+		}
+		this.values[slot] = value;
+		return this;
+	}
+
+	// Sets a value by name, looking the name up every time so prefer set(int, double) on hot paths
+	public Bindings set(String name, double value) throws Exception {
+		return this.set(this.requireSlot(name), value);
+	}
+
+	// Same as slotOf but throws an error for a unknown variable
+	int requireSlot(String name) throws Exception {
+		int slot = this.slotOf(name);
+		if (slot == -1)
+			throw new Exception("Unknown variable!: " + name);
+		return slot;
+	}
+
+	boolean isBound(int slot) {
+		return this.bound[slot];
+	}
+
+	public boolean isComplete() {
+		return this.unboundCount == 0;
+	}
+
+	// The values indexed by slot, this is the backing array so changes to it are seen by the bindings
+	// It can be passed directly to StackProgram or CompiledExpression
+	public double[] getValues() {
+		return this.values;
+	}
+
+	// Throws an error listing the variables that were never given a value
+	void checkComplete() throws Exception {
+		if (this.unboundCount == 0)
+			return;
+		StringBuilder missingValueVars = new StringBuilder("[");
+		for (int i = 0; i < this.names.length; i++)
+			if (!this.bound[i])
+				missingValueVars.append(this.names[i]).append(',');
+		missingValueVars.setCharAt(missingValueVars.length() - 1, ']');
+		throw new Exception("Missing values for variables!: " + missingValueVars);
+	}
+
+}
@@ -0,0 +1,400 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+// Compiles a typed expression tree into a hidden JVM class implementing CompiledExpression
+// The whole expression becomes a single straight line method of arithmetic and Math calls
+// So the JIT can inline and optimize it like hand written code
+// Nodes shared by several parents in a DAG are computed once and kept in a local variable
+public final class BytecodeCompiler {
+
+	// Class file constants
+	private static final int MAGIC = 0xCAFEBABE;
+	private static final int JAVA_8_VERSION = 52;
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_FINAL = 0x0010;
+	private static final int ACC_SUPER = 0x0020;
+	// HotSpot doesn't JIT compile methods longer than this, well below the 65535 bytes a method may have
+	// The stack program is faster than a interpreted method so longer expressions use it instead
+	private static final int HUGE_METHOD_LENGTH = 8000;
+	private static final int MAX_POOL_SIZE = 65535;
+	private static final int MAX_LOCALS = 65535;
+	// Local 0 is this and local 1 is the variable values array
+	private static final int FIRST_TEMPORARY_LOCAL = 2;
+
+	// Opcodes used by the generated code
+	private static final int DCONST_0 = 0x0e;
+	private static final int DCONST_1 = 0x0f;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int LDC2_W = 0x14;
+	private static final int DLOAD = 0x18;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int DALOAD = 0x31;
+	private static final int DSTORE = 0x39;
+	private static final int DUP2 = 0x5c;
+	private static final int DADD = 0x63;
+	private static final int DSUB = 0x67;
+	private static final int DMUL = 0x6b;
+	private static final int DDIV = 0x6f;
+	private static final int DRETURN = 0xaf;
+	private static final int RETURN = 0xb1;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+	private static final int WIDE = 0xc4;
+
+	private static final String CLASS_NAME = "BytecodeCompiler$Generated";
+	private static final String MATH = "java/lang/Math";
+	private static final String REGISTRY = "FunctionRegistry";
+	private static final String UNARY = "(D)D";
+	private static final String BINARY = "(DD)D";
+	private static final String CALL = "(DDI)D";
+
+	private BytecodeCompiler() {
+	}
+
+	// Compiles the tree, if the class can't be generated or defined the stack program is used instead
+	// Trees too tall to walk recursively go straight to the stack program, they wouldn't fit in a method that gets JIT compiled anyway
+	public static CompiledExpression compile(EvalNode root) {
+		try {
+			if (root.getHeight() <= EvalNode.MAX_RECURSION_HEIGHT) {
+				byte[] classBytes = new BytecodeCompiler.ClassBuilder(CommonSubexpressions.countReferences(root)).build(root);
+				if (classBytes != null) {
+					Class<?> generated = MethodHandles.lookup().defineHiddenClass(classBytes, true).lookupClass();
+					return (CompiledExpression) generated.getDeclaredConstructor().newInstance();
+				}
+			}
+		} catch (ReflectiveOperationException | IOException | LinkageError e) {
+			// Fall through to the stack program
+		}
+		final StackProgram program = StackProgram.compile(root);
+		// Compiled expressions are shared between threads like the generated classes are, so every thread reuses its own stack
+		final ThreadLocal<double[]> stacks = new ThreadLocal<double[]>() {
+			@Override
+			protected double[] initialValue() {
+				return program.newStack();
+			}
+		};
+		return new CompiledExpression() {
+			@Override
+			public double apply(double[] variableValues) {
+				return program.evaluate(variableValues, stacks.get());
+			}
+		};
+	}
+
+	// Writes the class file of a single expression
+	private static final class ClassBuilder {
+
+		private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+		private final DataOutputStream pool = new DataOutputStream(poolBytes);
+		private final HashMap<String, Integer> poolIndices = new HashMap<String, Integer>();
+		private int poolCount = 1;
+
+		private final ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+		private final DataOutputStream code = new DataOutputStream(codeBytes);
+		// The stack is measured in words, a double takes two of them
+		private int stackWords, maxStackWords;
+
+		private final IdentityHashMap<EvalNode, Integer> references;
+		// The local of each shared node that was already computed
+		private final IdentityHashMap<EvalNode, Integer> temporaries = new IdentityHashMap<EvalNode, Integer>();
+		private int localCount = FIRST_TEMPORARY_LOCAL;
+
+		private ClassBuilder(IdentityHashMap<EvalNode, Integer> references) {
+			this.references = references;
+		}
+
+		// Returns the class bytes, or null if the expression doesn't fit in a single method that can be JIT compiled
+		private byte[] build(EvalNode root) throws IOException {
+			int thisClass = this.classRef(CLASS_NAME);
+			int superClass = this.classRef("java/lang/Object");
+			int interfaceClass = this.classRef("CompiledExpression");
+			int objectInit = this.methodRef("java/lang/Object", "<init>", "()V");
+			int initName = this.utf8("<init>");
+			int initDescriptor = this.utf8("()V");
+			int applyName = this.utf8("apply");
+			int applyDescriptor = this.utf8("([D)D");
+			int codeAttribute = this.utf8("Code");
+
+			this.emit(root);
+			this.code.writeByte(DRETURN);
+			if (this.codeBytes.size() > HUGE_METHOD_LENGTH || this.poolCount > MAX_POOL_SIZE || this.localCount > MAX_LOCALS)
+				return null;
+
+			ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(classBytes);
+			out.writeInt(MAGIC);
+			out.writeShort(0);
+			out.writeShort(JAVA_8_VERSION);
+			out.writeShort(this.poolCount);
+			this.poolBytes.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(1);
+			out.writeShort(interfaceClass);
+			// No fields
+			out.writeShort(0);
+			out.writeShort(2);
+			// The constructor only calls Object's constructor
+			out.writeShort(ACC_PUBLIC);
+			out.writeShort(initName);
+			out.writeShort(initDescriptor);
+			out.writeShort(1);
+			out.writeShort(codeAttribute);
+			out.writeInt(12 + 5);
+			out.writeShort(1);
+			out.writeShort(1);
+			out.writeInt(5);
+			out.writeByte(ALOAD_0);
+			out.writeByte(INVOKESPECIAL);
+			out.writeShort(objectInit);
+			out.writeByte(RETURN);
+			out.writeShort(0);
+			out.writeShort(0);
+			// The apply method holding the expression
+			out.writeShort(ACC_PUBLIC | ACC_FINAL);
+			out.writeShort(applyName);
+			out.writeShort(applyDescriptor);
+			out.writeShort(1);
+			out.writeShort(codeAttribute);
+			out.writeInt(12 + this.codeBytes.size());
+			out.writeShort(this.maxStackWords);
+			out.writeShort(this.localCount);
+			out.writeInt(this.codeBytes.size());
+			this.codeBytes.writeTo(out);
+			out.writeShort(0);
+			out.writeShort(0);
+			// No class attributes
+			out.writeShort(0);
+			return classBytes.toByteArray();
+		}
+
+		// Emits the code leaving the value of the node on the stack
+		private void emit(EvalNode node) throws IOException {
+			Integer temporary = this.temporaries.get(node);
+			if (temporary != null) {
+				this.local(DLOAD, temporary);
+				this.push(2);
+				return;
+			}
+			this.emitValue(node);
+			// Keep the value of a shared operator for its other parents
+			if (node instanceof EvalNode.Operator && this.references.get(node) > 1) {
+				this.code.writeByte(DUP2);
+				this.push(2);
+				this.local(DSTORE, this.localCount);
+				this.pop(2);
+				this.temporaries.put(node, this.localCount);
+				this.localCount += 2;
+			}
+		}
+
+		private void emitValue(EvalNode node) throws IOException {
+			if (node instanceof EvalNode.Constant) {
+				double value = ((EvalNode.Constant) node).getValue();
+				if (Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(0.0))
+					this.code.writeByte(DCONST_0);
+				else if (value == 1.0)
+					this.code.writeByte(DCONST_1);
+				else {
+					this.code.writeByte(LDC2_W);
+					this.code.writeShort(this.doubleConstant(value));
+				}
+				this.push(2);
+			} else if (node instanceof EvalNode.Variable) {
+				this.code.writeByte(ALOAD_1);
+				this.push(1);
+				this.pushInt(((EvalNode.Variable) node).getSlot());
+				this.code.writeByte(DALOAD);
+				this.pop(2);
+				this.push(2);
+			} else {
+				EvalNode.Operator operator = (EvalNode.Operator) node;
+				int opcode = operator.getOpcode();
+				// log needs each operand converted before dividing
+				if (opcode == Operation.LOG) {
+					this.emit(operator.getLeft());
+					this.invokeMath("log10", UNARY);
+					this.emit(operator.getRight());
+					this.invokeMath("log10", UNARY);
+					this.binary(DDIV);
+					return;
+				}
+				if (operator.getLeft() != null)
+					this.emit(operator.getLeft());
+				this.emit(operator.getRight());
+				// Registered functions are called through the registry with their opcode
+				if (opcode >= Operation.FIRST_FUNCTION) {
+					if (operator.getLeft() == null) {
+						this.code.writeByte(DCONST_0);
+						this.push(2);
+					}
+					this.pushInt(opcode);
+					this.code.writeByte(INVOKESTATIC);
+					this.code.writeShort(this.methodRef(REGISTRY, "call", CALL));
+					this.pop(5);
+					this.push(2);
+					return;
+				}
+				switch (opcode) {
+				case Operation.ADD:
+					this.binary(DADD);
+					break;
+				case Operation.SUB:
+					this.binary(DSUB);
+					break;
+				case Operation.MUL:
+					this.binary(DMUL);
+					break;
+				case Operation.DIV:
+					this.binary(DDIV);
+					break;
+				case Operation.POW:
+					this.invokeMath("pow", BINARY);
+					break;
+				case Operation.MAX:
+					this.invokeMath("max", BINARY);
+					break;
+				case Operation.MIN:
+					this.invokeMath("min", BINARY);
+					break;
+				case Operation.LN:
+					this.invokeMath("log10", UNARY);
+					this.code.writeByte(LDC2_W);
+					this.code.writeShort(this.doubleConstant(Operation.LOG10_E));
+					this.push(2);
+					this.binary(DDIV);
+					break;
+				default:
+					// The rest of the unary operators map directly to a Math method of the same name
+					this.invokeMath(Operation.symbol(opcode), UNARY);
+				}
+			}
+		}
+
+		private void local(int instruction, int index) throws IOException {
+			if (index <= 0xff) {
+				this.code.writeByte(instruction);
+				this.code.writeByte(index);
+			} else {
+				this.code.writeByte(WIDE);
+				this.code.writeByte(instruction);
+				this.code.writeShort(index);
+			}
+		}
+
+		private void pushInt(int value) throws IOException {
+			if (value <= Byte.MAX_VALUE) {
+				this.code.writeByte(BIPUSH);
+				this.code.writeByte(value);
+			} else if (value <= Short.MAX_VALUE) {
+				this.code.writeByte(SIPUSH);
+				this.code.writeShort(value);
+			} else {
+				this.code.writeByte(LDC_W);
+				this.code.writeShort(this.intConstant(value));
+			}
+			this.push(1);
+		}
+
+		private void binary(int instruction) throws IOException {
+			this.code.writeByte(instruction);
+			this.pop(2);
+		}
+
+		private void invokeMath(String name, String descriptor) throws IOException {
+			this.code.writeByte(INVOKESTATIC);
+			this.code.writeShort(this.methodRef(MATH, name, descriptor));
+			if (descriptor.equals(BINARY))
+				this.pop(2);
+		}
+
+		private void push(int words) {
+			this.stackWords += words;
+			this.maxStackWords = Math.max(this.maxStackWords, this.stackWords);
+		}
+
+		private void pop(int words) {
+			this.stackWords -= words;
+		}
+
+		// Constant pool entries, identical entries are only written once
+		private int utf8(String value) throws IOException {
+			Integer index = this.poolIndices.get("U" + value);
+			if (index == null) {
+				this.pool.writeByte(1);
+				this.pool.writeUTF(value);
+				index = this.addPoolEntry("U" + value, 1);
+			}
+			return index;
+		}
+
+		private int classRef(String name) throws IOException {
+			Integer index = this.poolIndices.get("C" + name);
+			if (index == null) {
+				int nameIndex = this.utf8(name);
+				this.pool.writeByte(7);
+				this.pool.writeShort(nameIndex);
+				index = this.addPoolEntry("C" + name, 1);
+			}
+			return index;
+		}
+
+		private int methodRef(String owner, String name, String descriptor) throws IOException {
+			String key = "M" + owner + "." + name + descriptor;
+			Integer index = this.poolIndices.get(key);
+			if (index == null) {
+				int ownerIndex = this.classRef(owner);
+				int nameIndex = this.utf8(name);
+				int descriptorIndex = this.utf8(descriptor);
+				this.pool.writeByte(12);
+				this.pool.writeShort(nameIndex);
+				this.pool.writeShort(descriptorIndex);
+				int nameAndType = this.addPoolEntry("N" + key, 1);
+				this.pool.writeByte(10);
+				this.pool.writeShort(ownerIndex);
+				this.pool.writeShort(nameAndType);
+				index = this.addPoolEntry(key, 1);
+			}
+			return index;
+		}
+
+		private int intConstant(int value) throws IOException {
+			Integer index = this.poolIndices.get("I" + value);
+			if (index == null) {
+				this.pool.writeByte(3);
+				this.pool.writeInt(value);
+				index = this.addPoolEntry("I" + value, 1);
+			}
+			return index;
+		}
+
+		private int doubleConstant(double value) throws IOException {
+			long bits = Double.doubleToRawLongBits(value);
+			Integer index = this.poolIndices.get("D" + bits);
+			if (index == null) {
+				this.pool.writeByte(6);
+				this.pool.writeLong(bits);
+				// Doubles take two pool entries
+				index = this.addPoolEntry("D" + bits, 2);
+			}
+			return index;
+		}
+
+		private int addPoolEntry(String key, int size) {
+			int index = this.poolCount;
+			this.poolIndices.put(key, index);
+			this.poolCount += size;
+			return index;
+		}
+
+	}
+
+}
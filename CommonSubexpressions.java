@@ -0,0 +1,197 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+// Builds typed nodes while sharing structurally identical sub trees
+// Every node is interned, so two sub trees that compute the same thing end up as the same node
+// and the tree turns into a DAG that the compilers can evaluate each shared node of only once
+public final class CommonSubexpressions {
+
+	private final HashMap<Key, EvalNode> nodes = new HashMap<Key, EvalNode>();
+
+	public EvalNode constant(double value) {
+		Key key = new Key(-1, Double.doubleToLongBits(value), null, null);
+		EvalNode node = this.nodes.get(key);
+		if (node == null) {
+			node = new EvalNode.Constant(value);
+			this.nodes.put(key, node);
+		}
+		return node;
+	}
+
+	public EvalNode variable(int slot) {
+		Key key = new Key(-2, slot, null, null);
+		EvalNode node = this.nodes.get(key);
+		if (node == null) {
+			node = new EvalNode.Variable(slot);
+			this.nodes.put(key, node);
+		}
+		return node;
+	}
+
+	// The operands must already be interned by this instance
+	// Calls to impure functions aren't shared, every call gets its own node
+	public EvalNode operator(int opcode, EvalNode left, EvalNode right) {
+		if (!Operation.isPure(opcode))
+			return new EvalNode.Operator(opcode, left, right);
+		Key key = new Key(opcode, 0, left, right);
+		EvalNode node = this.nodes.get(key);
+		if (node == null) {
+			node = new EvalNode.Operator(opcode, left, right);
+			this.nodes.put(key, node);
+		}
+		return node;
+	}
+
+	// Returns the number of distinct nodes interned so far
+	public int size() {
+		return this.nodes.size();
+	}
+
+	// Rebuilds a tree with every identical sub tree shared
+	public static EvalNode eliminate(EvalNode root) {
+		return new CommonSubexpressions().intern(root, new IdentityHashMap<EvalNode, EvalNode>());
+	}
+
+	// Interns a tree that may come from somewhere else, nodes already visited are looked up instead of being walked again
+	public EvalNode intern(EvalNode node, IdentityHashMap<EvalNode, EvalNode> visited) {
+		return this.substitute(node, null, visited);
+	}
+
+	// Interns a tree with every variable replaced by the node given for its slot, or kept if no replacements are given
+	// The replacements must already be interned by this instance
+	public EvalNode substitute(EvalNode root, EvalNode[] slotNodes, IdentityHashMap<EvalNode, EvalNode> visited) {
+		for (EvalNode node : postfixOrder(root, visited)) {
+			EvalNode substituted;
+			if (node instanceof EvalNode.Constant)
+				substituted = this.constant(((EvalNode.Constant) node).getValue());
+			else if (node instanceof EvalNode.Variable)
+				substituted = slotNodes == null ? this.variable(((EvalNode.Variable) node).getSlot()) : slotNodes[((EvalNode.Variable) node).getSlot()];
+			else {
+				// The operands come before the node so they are already done
+				EvalNode.Operator operator = (EvalNode.Operator) node;
+				EvalNode left = operator.getLeft() == null ? null : visited.get(operator.getLeft());
+				substituted = this.operator(operator.getOpcode(), left, visited.get(operator.getRight()));
+			}
+			visited.put(node, substituted);
+		}
+		return visited.get(root);
+	}
+
+	// Counts how many parents every node of a DAG has, the root counts as having one
+	public static IdentityHashMap<EvalNode, Integer> countReferences(EvalNode root) {
+		IdentityHashMap<EvalNode, Integer> references = new IdentityHashMap<EvalNode, Integer>();
+		countReferences(root, references);
+		return references;
+	}
+
+	// Adds the references of another root to the counts, so the counts cover nodes shared between several roots
+	// Only the nodes seen for the first time add references to their operands
+	static void countReferences(EvalNode root, IdentityHashMap<EvalNode, Integer> references) {
+		for (EvalNode node : postfixOrder(root, references)) {
+			if (!references.containsKey(node))
+				references.put(node, 0);
+			if (node instanceof EvalNode.Operator) {
+				EvalNode.Operator operator = (EvalNode.Operator) node;
+				if (operator.getLeft() != null)
+					addReference(operator.getLeft(), references);
+				addReference(operator.getRight(), references);
+			}
+		}
+		addReference(root, references);
+	}
+
+	private static void addReference(EvalNode node, IdentityHashMap<EvalNode, Integer> references) {
+		Integer count = references.get(node);
+		references.put(node, count == null ? 1 : count + 1);
+	}
+
+	// Returns every distinct node of a DAG once, with the operands of a node before it and the root last
+	// The left operand comes before the right one, like in the postfix form of the expression
+	public static ArrayList<EvalNode> postfixOrder(EvalNode root) {
+		return postfixOrder(root, new IdentityHashMap<EvalNode, Object>());
+	}
+
+	// Same as above but the nodes in done and everything below them are left out
+	// The walk uses a explicit stack so it works for trees of any height
+	static ArrayList<EvalNode> postfixOrder(EvalNode root, IdentityHashMap<EvalNode, ?> done) {
+		ArrayList<EvalNode> order = new ArrayList<EvalNode>();
+		if (done.containsKey(root))
+			return order;
+		IdentityHashMap<EvalNode, Boolean> added = new IdentityHashMap<EvalNode, Boolean>();
+		EvalNode[] stack = new EvalNode[Math.min(root.getHeight(), 1 << 16) + 1];
+		int top = 0;
+		stack[0] = root;
+		while (top >= 0) {
+			EvalNode node = stack[top];
+			if (added.containsKey(node)) {
+				top--;
+				continue;
+			}
+			boolean ready = true;
+			if (node instanceof EvalNode.Operator) {
+				// The right operand is pushed first so the left one is done first
+				EvalNode.Operator operator = (EvalNode.Operator) node;
+				if (top + 2 >= stack.length)
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				EvalNode right = operator.getRight(), left = operator.getLeft();
+				if (!done.containsKey(right) && !added.containsKey(right)) {
+					stack[++top] = right;
+					ready = false;
+				}
+				if (left != null && !done.containsKey(left) && !added.containsKey(left)) {
+					stack[++top] = left;
+					ready = false;
+				}
+			}
+			if (ready) {
+				added.put(node, Boolean.TRUE);
+				order.add(node);
+				top--;
+			}
+		}
+		return order;
+	}
+
+	// Returns the nodes like postfixOrder and records the place of every node in the order in indices, for storing the nodes in flat arrays
+	// where a operator points at its operands by index, nodes already in indices are left out and the new ones numbered after them
+	static ArrayList<EvalNode> postfixOrderWithIndices(EvalNode root, IdentityHashMap<EvalNode, Integer> indices) {
+		ArrayList<EvalNode> order = postfixOrder(root, indices);
+		for (EvalNode node : order)
+			indices.put(node, indices.size());
+		return order;
+	}
+
+	// Operands are compared by identity since they are already interned
+	private static final class Key {
+
+		private final int kind;
+		private final long value;
+		private final EvalNode left, right;
+
+		private Key(int kind, long value, EvalNode left, EvalNode right) {
+			this.kind = kind;
+			this.value = value;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = this.kind * 31 + Long.hashCode(this.value);
+			hash = hash * 31 + System.identityHashCode(this.left);
+			return hash * 31 + System.identityHashCode(this.right);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return this.kind == other.kind && this.value == other.value && this.left == other.left && this.right == other.right;
+		}
+
+	}
+
+}
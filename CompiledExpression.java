@@ -0,0 +1,7 @@
+// A expression compiled into a JVM class
+// The values are given indexed by the variable slots, the same way as Expression.evaluate(double[])
+public interface CompiledExpression {
+
+	double apply(double[] variableValues);
+
+}
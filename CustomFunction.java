@@ -0,0 +1,33 @@
+// A function that expressions can call once it's added to FunctionRegistry, for example erf or normcdf
+// The name may only have lower case letters, and the function takes one or two values like the built in functions
+// A pure function always gives the same result for the same values and has no side effects,
+// so calls on constants are folded while simplifying, identical calls are shared and the results can be cached
+// Impure functions are called every time, except by IncrementalEvaluator which only calls them again when their values change
+public abstract class CustomFunction {
+
+	private final String name;
+	private final int arity;
+	private final boolean pure;
+
+	protected CustomFunction(String name, int arity, boolean pure) {
+		this.name = name;
+		this.arity = arity;
+		this.pure = pure;
+	}
+
+	// Computes the function, a function with a single value only looks at the first one
+	public abstract double apply(double value, double value1);
+
+	public String getName() {
+		return name;
+	}
+
+	public int getArity() {
+		return arity;
+	}
+
+	public boolean isPure() {
+		return pure;
+	}
+
+}
@@ -0,0 +1,163 @@
+import java.util.IdentityHashMap;
+
+// Differentiates typed expression trees by building the derivative tree directly
+// The original nodes are reused wherever the rules need them instead of being copied,
+// and every node is differentiated once no matter how many parents it has, so the work is linear in the size of the DAG
+public final class Derivative {
+
+	private final int slot;
+	private final CommonSubexpressions nodes;
+	private final IdentityHashMap<EvalNode, EvalNode> derivatives = new IdentityHashMap<EvalNode, EvalNode>();
+	private final IdentityHashMap<EvalNode, EvalNode> interned = new IdentityHashMap<EvalNode, EvalNode>();
+
+	// Differentiates by the variable in the given slot, a slot of -1 differentiates by a variable the tree doesn't have
+	public Derivative(int slot) {
+		this(slot, new CommonSubexpressions());
+	}
+
+	// The nodes are built through the given builder so derivatives by several variables can share their nodes
+	public Derivative(int slot, CommonSubexpressions nodes) {
+		this.slot = slot;
+		this.nodes = nodes;
+	}
+
+	// Returns the derivative of a tree
+	// The nodes are differentiated in postfix order so the derivatives of the operands are always ready, without recursion
+	public EvalNode differentiate(EvalNode root) {
+		EvalNode node = this.nodes.intern(root, this.interned);
+		for (EvalNode next : CommonSubexpressions.postfixOrder(node, this.derivatives))
+			this.derivatives.put(next, this.deriveNode(next));
+		return this.derivatives.get(node);
+	}
+
+	private EvalNode deriveNode(EvalNode node) {
+		if (node instanceof EvalNode.Constant)
+			return this.constant(0);
+		if (node instanceof EvalNode.Variable)
+			return this.constant(((EvalNode.Variable) node).getSlot() == this.slot ? 1 : 0);
+		EvalNode.Operator operator = (EvalNode.Operator) node;
+		EvalNode u = operator.getLeft(), v = operator.getRight();
+		EvalNode du = u == null ? null : this.derivatives.get(u), dv = this.derivatives.get(v);
+		// Registered functions only have a derivative where they don't depend on the variable
+		if (operator.getOpcode() >= Operation.FIRST_FUNCTION) {
+			if (isZero(dv) && (du == null || isZero(du)))
+				return this.constant(0);
+			throw new IllegalArgumentException("No derivative for function: " + Operation.symbol(operator.getOpcode()));
+		}
+		switch (operator.getOpcode()) {
+		case Operation.ADD:
+			return this.add(du, dv);
+		case Operation.SUB:
+			return this.subtract(du, dv);
+		case Operation.MUL:
+			return this.add(this.multiply(du, v), this.multiply(u, dv));
+		case Operation.DIV:
+			return this.divide(this.subtract(this.multiply(du, v), this.multiply(u, dv)), this.operator(Operation.POW, v, this.constant(2)));
+		case Operation.POW:
+			// u ^ c => c * u ^ (c - 1) * u'
+			if (v instanceof EvalNode.Constant) {
+				double exponent = ((EvalNode.Constant) v).getValue();
+				return this.multiply(this.multiply(v, this.operator(Operation.POW, u, this.constant(exponent - 1))), du);
+			}
+			// c ^ v => c ^ v * ln(c) * v'
+			if (isZero(du))
+				return this.multiply(this.multiply(node, this.operator(Operation.LN, null, u)), dv);
+			// u ^ v => u ^ v * (v' * ln(u) + v * u' / u)
+			return this.multiply(node, this.add(this.multiply(dv, this.operator(Operation.LN, null, u)), this.divide(this.multiply(v, du), u)));
+		case Operation.SQRT:
+			return this.divide(dv, this.multiply(this.constant(2), node));
+		case Operation.SIN:
+			return this.multiply(this.operator(Operation.COS, null, v), dv);
+		case Operation.COS:
+			return this.multiply(this.multiply(this.constant(-1), this.operator(Operation.SIN, null, v)), dv);
+		case Operation.TAN:
+			return this.divide(dv, this.operator(Operation.POW, this.operator(Operation.COS, null, v), this.constant(2)));
+		case Operation.ASIN:
+			return this.divide(dv, this.operator(Operation.SQRT, null, this.subtract(this.constant(1), this.operator(Operation.POW, v, this.constant(2)))));
+		case Operation.ACOS:
+			return this.divide(this.multiply(this.constant(-1), dv), this.operator(Operation.SQRT, null, this.subtract(this.constant(1), this.operator(Operation.POW, v, this.constant(2)))));
+		case Operation.ATAN:
+			return this.divide(dv, this.add(this.operator(Operation.POW, v, this.constant(2)), this.constant(1)));
+		case Operation.LN:
+			return this.divide(dv, v);
+		case Operation.LOG: {
+			// log(u, v) = ln(u) / ln(v)
+			EvalNode lnV = this.operator(Operation.LN, null, v);
+			if (isZero(dv))
+				return this.divide(du, this.multiply(u, lnV));
+			EvalNode lnU = this.operator(Operation.LN, null, u);
+			EvalNode numerator = this.subtract(this.multiply(this.divide(du, u), lnV), this.multiply(lnU, this.divide(dv, v)));
+			return this.divide(numerator, this.operator(Operation.POW, lnV, this.constant(2)));
+		}
+		case Operation.MAX:
+		case Operation.MIN: {
+			// max(u, v) = (u + v + |u - v|) / 2 and min(u, v) = (u + v - |u - v|) / 2, with |u - v| written as sqrt((u - v) ^ 2)
+			// So the derivative is undefined where u = v
+			EvalNode difference = this.subtract(u, v);
+			EvalNode absolute = this.operator(Operation.SQRT, null, this.operator(Operation.POW, difference, this.constant(2)));
+			EvalNode slope = this.divide(this.multiply(difference, this.subtract(du, dv)), absolute);
+			EvalNode sum = operator.getOpcode() == Operation.MAX ? this.add(this.add(du, dv), slope) : this.subtract(this.add(du, dv), slope);
+			return this.divide(sum, this.constant(2));
+		}
+		default:
+			throw new IllegalArgumentException("Unknown opcode: " + operator.getOpcode());
+		}
+	}
+
+	// Builders that skip the work for zeros and ones, and fold operators on two constants
+	private EvalNode add(EvalNode left, EvalNode right) {
+		if (isZero(left))
+			return right;
+		if (isZero(right))
+			return left;
+		return this.operator(Operation.ADD, left, right);
+	}
+
+	private EvalNode subtract(EvalNode left, EvalNode right) {
+		if (isZero(right))
+			return left;
+		if (isZero(left))
+			return this.multiply(this.constant(-1), right);
+		return this.operator(Operation.SUB, left, right);
+	}
+
+	private EvalNode multiply(EvalNode left, EvalNode right) {
+		if (isZero(left) || isZero(right))
+			return this.constant(0);
+		if (isOne(left))
+			return right;
+		if (isOne(right))
+			return left;
+		return this.operator(Operation.MUL, left, right);
+	}
+
+	private EvalNode divide(EvalNode left, EvalNode right) {
+		if (isZero(left))
+			return this.constant(0);
+		if (isOne(right))
+			return left;
+		return this.operator(Operation.DIV, left, right);
+	}
+
+	private EvalNode operator(int opcode, EvalNode left, EvalNode right) {
+		if (right instanceof EvalNode.Constant && (left == null || left instanceof EvalNode.Constant)) {
+			double value = left == null ? ((EvalNode.Constant) right).getValue() : ((EvalNode.Constant) left).getValue();
+			double value1 = ((EvalNode.Constant) right).getValue();
+			return this.constant(Operation.apply(opcode, value, value1));
+		}
+		return this.nodes.operator(opcode, left, right);
+	}
+
+	private EvalNode constant(double value) {
+		return this.nodes.constant(value);
+	}
+
+	private static boolean isZero(EvalNode node) {
+		return node instanceof EvalNode.Constant && ((EvalNode.Constant) node).getValue() == 0;
+	}
+
+	private static boolean isOne(EvalNode node) {
+		return node instanceof EvalNode.Constant && ((EvalNode.Constant) node).getValue() == 1;
+	}
+
+}
@@ -0,0 +1,150 @@
+import java.util.IdentityHashMap;
+
+// A typed expression tree node used for evaluation
+// Numbers are parsed once, variables are resolved to slots and operators to opcodes
+// So evaluating the tree works on primitive doubles only
+public abstract class EvalNode {
+
+	// Trees taller than this are evaluated with a explicit stack instead of recursion so they can't overflow the call stack
+	public static final int MAX_RECURSION_HEIGHT = 1000;
+
+	// Evaluates the sub tree with the given variable values indexed by their slot
+	public abstract double evaluate(double[] variableValues);
+
+	// The number of operators on the longest path from this node to a leaf
+	public int getHeight() {
+		return 0;
+	}
+
+	// A node holding a number
+	public static final class Constant extends EvalNode {
+
+		private final double value;
+
+		public Constant(double value) {
+			this.value = value;
+		}
+
+		public double getValue() {
+			return value;
+		}
+
+		@Override
+		public double evaluate(double[] variableValues) {
+			return this.value;
+		}
+
+	}
+
+	// A node holding the slot of a variable
+	public static final class Variable extends EvalNode {
+
+		private final int slot;
+
+		public Variable(int slot) {
+			this.slot = slot;
+		}
+
+		public int getSlot() {
+			return slot;
+		}
+
+		@Override
+		public double evaluate(double[] variableValues) {
+			return variableValues[this.slot];
+		}
+
+	}
+
+	// A node holding a opcode and its operands, single value operators only have a right operand
+	public static final class Operator extends EvalNode {
+
+		private final int opcode;
+		private final EvalNode left, right;
+		private final int height;
+
+		public Operator(int opcode, EvalNode left, EvalNode right) {
+			this.opcode = opcode;
+			this.left = left;
+			this.right = right;
+			this.height = 1 + Math.max(left == null ? 0 : left.getHeight(), right.getHeight());
+		}
+
+		public int getOpcode() {
+			return opcode;
+		}
+
+		public EvalNode getLeft() {
+			return left;
+		}
+
+		public EvalNode getRight() {
+			return right;
+		}
+
+		@Override
+		public int getHeight() {
+			return height;
+		}
+
+		@Override
+		public double evaluate(double[] variableValues) {
+			if (this.height > MAX_RECURSION_HEIGHT)
+				return this.evaluateIteratively(variableValues);
+			if (Operation.isUnary(this.opcode))
+				return Operation.apply(this.opcode, this.right.evaluate(variableValues), 0);
+			return Operation.apply(this.opcode, this.left.evaluate(variableValues), this.right.evaluate(variableValues));
+		}
+
+		// Walks the tree in postfix order with a explicit stack, sub trees short enough are still evaluated recursively
+		// Both stacks are bounded by the height since every operator waiting on the stack holds at most its left value
+		// The values of the tall nodes are kept, since deep trees like derivatives share them between many parents
+		private double evaluateIteratively(double[] variableValues) {
+			EvalNode[] nodes = new EvalNode[this.height + 1];
+			int[] states = new int[this.height + 1];
+			double[] values = new double[this.height + 1];
+			IdentityHashMap<EvalNode, Double> tallValues = new IdentityHashMap<EvalNode, Double>();
+			int top = 0, sp = 0;
+			nodes[0] = this;
+			while (top >= 0) {
+				EvalNode node = nodes[top];
+				if (node.getHeight() <= MAX_RECURSION_HEIGHT) {
+					values[sp++] = node.evaluate(variableValues);
+					top--;
+					continue;
+				}
+				Double known = states[top] == 0 ? tallValues.get(node) : null;
+				if (known != null) {
+					values[sp++] = known;
+					top--;
+					continue;
+				}
+				Operator operator = (Operator) node;
+				// State 0 visits the left operand, state 1 the right one and state 2 applies the operator
+				if (states[top] == 0) {
+					states[top] = 1;
+					if (operator.left != null) {
+						nodes[++top] = operator.left;
+						states[top] = 0;
+					}
+				} else if (states[top] == 1) {
+					states[top] = 2;
+					nodes[++top] = operator.right;
+					states[top] = 0;
+				} else {
+					if (Operation.isUnary(operator.opcode))
+						values[sp - 1] = Operation.apply(operator.opcode, values[sp - 1], 0);
+					else {
+						sp--;
+						values[sp - 1] = Operation.apply(operator.opcode, values[sp - 1], values[sp]);
+					}
+					tallValues.put(operator, values[sp - 1]);
+					top--;
+				}
+			}
+			return values[0];
+		}
+
+	}
+
+}
@@ -0,0 +1,34 @@
+import java.util.concurrent.RecursiveAction;
+
+// Evaluates a range of rows by splitting it in half until the ranges are small enough to evaluate directly
+// Every task writes to its own part of the output so the tasks don't need to lock anything
+class EvaluationTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	private final StackProgram program;
+	private final double[][] variableColumns;
+	private final double[] output;
+	private final int offset, length, granularity;
+
+	EvaluationTask(StackProgram program, double[][] variableColumns, double[] output, int offset, int length, int granularity) {
+		this.program = program;
+		this.variableColumns = variableColumns;
+		this.output = output;
+		this.offset = offset;
+		this.length = length;
+		this.granularity = granularity;
+	}
+
+	@Override
+	protected void compute() {
+		if (this.length <= this.granularity) {
+			this.program.evaluate(this.variableColumns, this.output, this.offset, this.length);
+			return;
+		}
+		int half = this.length / 2;
+		invokeAll(new EvaluationTask(this.program, this.variableColumns, this.output, this.offset, half, this.granularity),
+				new EvaluationTask(this.program, this.variableColumns, this.output, this.offset + half, this.length - half, this.granularity));
+	}
+
+}
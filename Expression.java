@@ -1,571 +1,647 @@
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Stack;
-
-public class Expression implements Cloneable {
-
-	// Consents for operation priority
-	private static final Integer HIGH_PRIORITY = 3;
-	private static final Integer MEDIUM_PRIORITY = 2;
-	private static final Integer LOW_PRIORITY = 1;
-	private static final Integer ZERO_PRIORITY = 0;
-
-	// Constants for known functions and operators
-	private static final String[] FUNCTIONS = { "sqrt", "sin", "cos", "tan", "asin", "acos", "atan", "ln", "max", "min", "log", "pi", "e" };
-	private static final String[] SINGLE_OPERAND_FUNCTIONS = { "sin", "cos", "tan", "asin", "acos", "atan", "sqrt", "ln" };
-	private static HashMap<String, Integer> PRECEDENCE_MAP = new HashMap<String, Integer>();
-	static {
-		PRECEDENCE_MAP.put("sqrt", HIGH_PRIORITY);
-		PRECEDENCE_MAP.put("ln", HIGH_PRIORITY);
-		PRECEDENCE_MAP.put("max", HIGH_PRIORITY);
-		PRECEDENCE_MAP.put("min", HIGH_PRIORITY);
-		PRECEDENCE_MAP.put("log", HIGH_PRIORITY);
-		PRECEDENCE_MAP.put("sin", HIGH_PRIORITY);
-		PRECEDENCE_MAP.put("cos", HIGH_PRIORITY);
-		PRECEDENCE_MAP.put("tan", HIGH_PRIORITY);
-		PRECEDENCE_MAP.put("asin", HIGH_PRIORITY);
-		PRECEDENCE_MAP.put("acos", HIGH_PRIORITY);
-		PRECEDENCE_MAP.put("atan", HIGH_PRIORITY);
-		PRECEDENCE_MAP.put("^", MEDIUM_PRIORITY);
-		PRECEDENCE_MAP.put("*", LOW_PRIORITY);
-		PRECEDENCE_MAP.put("/", LOW_PRIORITY);
-		PRECEDENCE_MAP.put("+", ZERO_PRIORITY);
-		PRECEDENCE_MAP.put("-", ZERO_PRIORITY);
-	}
-
-	// A regular expression for numbers
-	private static final String NUMBER_PATTERN = "-?[0-9]+(\\.[0-9]*)?";
-
-	// A list for variables
-	private LinkedHashSet<String> variables;
-
-	// Storing the original expression and its infix version
-	private String originalExpression;
-	private Queue<String> postfixExpression;
-
-	// The binary expression tree root used for evaluating the expression
-	private Node<String> treeRoot;
-
-	// A constructor to initialize a new expression
-	public Expression(String expression) throws Exception {
-		this.variables = new LinkedHashSet<String>();
-		this.originalExpression = expression;
-		this.postfixExpression = this.toPostfix(expression);
-		this.treeRoot = this.buildTree(this.getPostfixExpression());
-	}
-
-	// A private constructor used for cloning
-	private Expression(LinkedHashSet<String> variables, String originalExpression, Queue<String> postfixExpression, Node<String> treeRoot) throws CloneNotSupportedException {
-		this.variables = variables;
-		this.originalExpression = originalExpression;
-		this.postfixExpression = postfixExpression;
-		this.treeRoot = treeRoot.clone();
-	}
-
-	// Getters for the original expression and its postfix version
-	public String getOriginalExpression() {
-		return originalExpression;
-	}
-
-	public Queue<String> getPostfixExpression() {
-		return postfixExpression;
-	}
-
-	// Getter for the list of variables
-	public LinkedHashSet<String> getVariables() {
-		return this.variables;
-	}
-
-	// Converting a expression to postfix using the shunting-yard algorithm
-	// Source: https://en.wikipedia.org/wiki/Shunting-yard_algorithm
-	private Queue<String> toPostfix(String expression) throws Exception {
-		// Initialize the output queue and the operator stack
-		Queue<String> postfix = new LinkedList<String>();
-		Stack<String> operators = new Stack<String>();
-		// Create temporary variables for storing the current and previous char
-		char prevChar = ' ', prefix = ' ';
-		// Remove spaces from the expression to make it easier to parse
-		expression = expression.replace(" ", "");
-		outer_loop: for (int i = 0; i < expression.length(); i++) {
-			char c = expression.charAt(i);
-			// Check if the token is a negative
-			if ((prevChar == ' ' || this.isOprator(prevChar + "")) && c == '-') {
-				prefix = '-';
-				continue;
-			}
-			// If the token is a number read it
-			if (Character.isDigit(c)) {
-				StringBuilder numberBuilder = new StringBuilder();
-				// If its negative add a minus sign to it
-				if (prefix != ' ') {
-					numberBuilder.append(prefix);
-					prefix = ' ';
-				}
-				// Read all digits of the number
-				boolean notSeenDot = true;
-				while (Character.isDigit(c) || (c == '.' && notSeenDot)) {
-					numberBuilder.append(c);
-					if (c == '.')
-						notSeenDot = false;
-					if (i + 1 < expression.length())
-						c = expression.charAt(++i);
-					else
-						break;
-				}
-				postfix.add(numberBuilder.toString());
-			}
-			// Check if the current token is a function(sin, cos, etc...) or constant(e, pi,
-			// etc...)
-			for (String func : FUNCTIONS)
-				if (expression.startsWith(func, i)) {
-					if (prefix == '-') {
-						postfix.add("-1");
-						operators.add("*");
-					}
-					if (!func.equals("pi") && !func.equals("e"))
-						operators.push(func);
-					else if (func.equals("pi"))
-						postfix.add(Math.PI + "");
-					else if (func.equals("e"))
-						postfix.add(Math.E + "");
-					i += func.length() - 1;
-					continue outer_loop;
-				}
-			// Check if there's a variable and if yes read its name
-			if (Character.isLetter(c)) {
-				StringBuilder varName = new StringBuilder();
-				// Add a minus sign if the variable has one
-				if (prefix != ' ') {
-					varName.append(prefix);
-					prefix = ' ';
-				}
-				// Read all of the variables name
-				while (Character.isLetter(c) || Character.isDigit(c)) {
-					varName.append(c);
-					if (i + 1 < expression.length())
-						c = expression.charAt(++i);
-					else
-						break;
-				}
-				postfix.add(varName.toString());
-				this.variables.add(varName.toString());
-			}
-			// Check if it's a operator
-			if (PRECEDENCE_MAP.containsKey(c + "")) {
-				while (!operators.isEmpty() && !operators.peek().equals("(")
-						&& (PRECEDENCE_MAP.get(c + "") < PRECEDENCE_MAP.get(operators.peek())
-								|| (PRECEDENCE_MAP.get(c + "") == PRECEDENCE_MAP.get(operators.peek()) && c != '^')))
-					postfix.add(operators.pop());
-				operators.add(c + "");
-				// Check if it's left parenthesis
-			} else if (c == '(')
-				operators.add("(");
-			// Check if it's right parenthesis
-			else if (c == ')') {
-				while (!operators.peek().equals("("))
-					postfix.add(operators.pop());
-				if (operators.peek().equals("("))
-					operators.pop();
-			}
-		}
-		// If any operators are left put them all in the output
-		while (!operators.isEmpty()) {
-			if (operators.peek().equals(")") || operators.peek().equals("("))
-				throw new Exception("Mismatched parenthesis!");
-			postfix.add(operators.pop());
-		}
-		return postfix;
-	}
-
-	// Checks if the token sent is a operator
-	private boolean isOprator(String token) {
-		return PRECEDENCE_MAP.containsKey(token);
-	}
-
-	// Builds the expression tree used for evaluation
-	private Node<String> buildTree(Queue<String> postfixExpression) {
-		// A stack of nodes to buffer tree building
-		Stack<Node<String>> bufferStack = new Stack<Node<String>>();
-		// We loop over each token in the postfix expression
-		for (String token : postfixExpression) {
-			// If its a number we create a new node containing it and push it to the stack
-			if (token.matches(NUMBER_PATTERN) || this.variables.contains(token))
-				bufferStack.push(new Node<String>(token));
-			// If it a operator
-			if (this.isOprator(token)) {
-				// If it needs a single value
-				if (this.isSingleValueOperator(token))
-					bufferStack.push(new Node<String>(token, bufferStack.pop(), null));
-				// If it needs two
-				else
-					bufferStack.push(new Node<String>(token, bufferStack.pop(), bufferStack.pop()));
-			}
-		}
-		// Then we get the tree root
-		return bufferStack.pop();
-	}
-
-	// Evaluation method for the expression tree to solve the expression
-	public Double evaluate() throws Exception {
-		// We check if we have variables and we were'nt given values for them we throw
-		// an error
-		// Because we can't complete the evaluation
-		if (!this.variables.isEmpty())
-			throw new Exception("Missing value for variables!: " + this.variables);
-		return this.evaluate(this.treeRoot, new HashMap<String, Double>());
-	}
-
-	public Double evaluate(Double... variableValues) throws Exception {
-		// We map out each variable to its corresponding value by the order
-		// The values are given, and by the order the variables were discovered
-		// e.g: for x + y + z
-		// The first given value will go to x
-		// The second for y
-		// The third for z
-		// And so on
-		HashMap<String, Double> variablesValueMap = new HashMap<String, Double>();
-		Iterator<String> variableIterator = this.variables.iterator();
-		for (int i = 0; i < variableValues.length && variableIterator.hasNext(); i++)
-			variablesValueMap.put(variableIterator.next(), variableValues[i]);
-		if (variableIterator.hasNext()) {
-			String missingValueVars = "[";
-			while (variableIterator.hasNext())
-				missingValueVars += variableIterator.next() + ',';
-			missingValueVars = missingValueVars.substring(0, missingValueVars.length() - 1) + "]";
-			throw new Exception("Missing values for variables!: " + missingValueVars);
-		}
-		return this.evaluate(this.treeRoot, variablesValueMap);
-	}
-
-	// The evaluation method we look at a node of the tree
-	// If it contains a operator we execute the operator on it's children
-	// If it contains a number we return that number
-	// If it contains a variable we return it's value
-	private Double evaluate(Node<String> ptr, HashMap<String, Double> variableValues) {
-		// The current node's contents
-		String data = ptr.getData();
-		// Check if it's a number
-		if (data.matches(NUMBER_PATTERN))
-			return Double.parseDouble(ptr.getData());
-		// Check if it's a variable
-		if (variableValues.containsKey(data))
-			return variableValues.get(data);
-		// Check if it need's 1 or 2 values for the operator and execute it
-		if (this.isSingleValueOperator(ptr.getData())) {
-			Double value = this.evaluate(ptr.getRight(), variableValues);
-			return this.doCalculation(data, value);
-		} else {
-			Double value = this.evaluate(ptr.getRight(), variableValues);
-			Double value1 = this.evaluate(ptr.getLeft(), variableValues);
-			return this.doCalculation(data, value, value1);
-		}
-	}
-
-	// A method to check if a token is a single value operator
-	private boolean isSingleValueOperator(String token) {
-		for (String operation : SINGLE_OPERAND_FUNCTIONS)
-			if (operation.equals(token))
-				return true;
-		return false;
-	}
-
-	// A utility function to do a calculation for a given operator and values
-	private Double doCalculation(String operator, Double... values) {
-		if (operator.equals("cos"))
-			return Math.cos(values[0]);
-		else if (operator.equals("sin"))
-			return Math.sin(values[0]);
-		else if (operator.equals("asin"))
-			return Math.asin(values[0]);
-		else if (operator.equals("cos"))
-			return Math.cos(values[0]);
-		else if (operator.equals("acos"))
-			return Math.acos(values[0]);
-		else if (operator.equals("tan"))
-			return Math.tan(values[0]);
-		else if (operator.equals("atan"))
-			return Math.atan(values[0]);
-		else if (operator.equals("sqrt"))
-			return Math.sqrt(values[0]);
-		else if (operator.equals("ln"))
-			return Math.log10(values[0]) / Math.log10(Math.E);
-		else if (operator.equals("log"))
-			return Math.log10(values[0]) / Math.log10(values[1]);
-		else if (operator.equals("max"))
-			return Math.max(values[0], values[1]);
-		else if (operator.equals("min"))
-			return Math.min(values[0], values[1]);
-		else if (operator.equals("+"))
-			return values[0] + values[1];
-		else if (operator.equals("-"))
-			return values[0] - values[1];
-		else if (operator.equals("/"))
-			return values[0] / values[1];
-		else if (operator.equals("*"))
-			return values[0] * values[1];
-		else if (operator.equals("^"))
-			return Math.pow(values[0], values[1]);
-		return null;
-	}
-	
-	// A method to approximate the area under the expression graph in a given range 
-	// Using a Riemann-Sum with a given interval, the smaller the interval the more accurate the result
-	public Double approximateAreaUnderTheGraph(Double startPoint, Double endPoint, Double intreval) throws Exception {
-		if (this.getVariables().size() > 1)
-			throw new Exception("This method only works for single variable expresisons!");
-		Double integralSum = 0.0;
-		// We sum up the area of the rectangles that are approximately equal to the area under a small portion of the graph
-		for (Double i = startPoint; i <= endPoint; i += intreval) {
-			Double currentRectangleArea = this.evaluate(i) * intreval;
-			if (!Double.isInfinite(currentRectangleArea))
-				integralSum += Math.abs(currentRectangleArea);
-		}
-		return integralSum;
-	}
-	
-	// A way to minimize parts of the expression to speed up the evaluation process and take up less space
-	// For example: x + 5 + 4 * 1 will turn into x + 9
-	// Returns a minimized expression
-	public Expression minimizeExpression() throws Exception {
-		Node<String> ptr = this.treeRoot.clone();
-		this.minimizeExpression(ptr);
-		// After the minimization we create a new Expression and return it
-		String minimizedStr = this.reconstructExpressionFromTree(ptr);
-		if (minimizedStr.charAt(0) == '(')
-			minimizedStr = minimizedStr.substring(1, minimizedStr.length() - 1);
-		return new Expression(this.getVariables(), minimizedStr, this.toPostfix(minimizedStr), ptr);
-	}
-	
-	// The recursive implementation of the minimization process
-	private void minimizeExpression(Node<String> ptr) {
-		// Recurse left if possible
-		if (ptr.hasLeft())
-			this.minimizeExpression(ptr.getLeft());
-		// Recurse right if possible
-		if (ptr.hasRight())
-			this.minimizeExpression(ptr.getRight());
-		if (this.isSingleValueOperator(ptr.getData()) && ptr.getRight().getData().matches(NUMBER_PATTERN)) {
-			Double rightValue = Double.parseDouble(ptr.getRight().getData());
-			ptr.setData(this.doCalculation(ptr.getData(), rightValue) + "");
-			ptr.setRight(null);
-		}
-		// Check if i have two children and that they are not operators
-		if (ptr.hasLeft() && ptr.hasRight()) {
-			// Check both are numbers
-			String rightStr = ptr.getRight().getData();
-			String leftStr = ptr.getLeft().getData();
-			if (!rightStr.matches(NUMBER_PATTERN) || !leftStr.matches(NUMBER_PATTERN)) {
-				// Checks if we have operator chaining for example 5 * x * 2 that should be 10 * x
-				if (this.isOprator(ptr.getData())) {
-					boolean modificationMade = false;
-					// Checks for case one, right child is a number and we have a operator chain
-					if (ptr.getData().equals(ptr.getLeft().getData()) && ptr.getRight().getData().matches(NUMBER_PATTERN)) {
-						String leftLeftChild = ptr.getLeft().getLeft().getData();
-						String leftRightChild = ptr.getLeft().getRight().getData();
-						if (leftLeftChild.matches(NUMBER_PATTERN)) {
-							Double val = Double.parseDouble(leftLeftChild);
-							Double val1 = Double.parseDouble(ptr.getRight().getData());
-							ptr.getLeft().getLeft().setData(this.doCalculation(ptr.getData(), val ,val1) + "");
-							modificationMade = true;
-						}
-						else if (leftRightChild.matches(NUMBER_PATTERN)) {
-							Double val = Double.parseDouble(leftRightChild);
-							Double val1 = Double.parseDouble(ptr.getRight().getData());
-							ptr.getLeft().getRight().setData(this.doCalculation(ptr.getData(), val ,val1) + "");
-							modificationMade = true;
-						}
-						if (modificationMade) {
-							ptr.setData(ptr.getLeft().getData());
-							ptr.setRight(ptr.getLeft().getRight());
-							ptr.setLeft(ptr.getLeft().getLeft());
-						}
-					}
-					// Checks for case two, left child is a number and we have a operator chain
-					else if (ptr.getData().equals(ptr.getRight().getData()) && ptr.getLeft().getData().matches(NUMBER_PATTERN)) {
-						String rightLeftChild = ptr.getRight().getLeft().getData();
-						String rightRightChild = ptr.getRight().getRight().getData();
-						if (rightLeftChild.matches(NUMBER_PATTERN)) {
-							Double val = Double.parseDouble(rightLeftChild);
-							Double val1 = Double.parseDouble(ptr.getLeft().getData());
-							ptr.getRight().getLeft().setData(this.doCalculation(ptr.getData(), val ,val1) + "");
-							modificationMade = true;
-						}
-						else if (rightRightChild.matches(NUMBER_PATTERN)) {
-							Double val = Double.parseDouble(rightRightChild);
-							Double val1 = Double.parseDouble(ptr.getLeft().getData());
-							ptr.getRight().getRight().setData(this.doCalculation(ptr.getData(), val ,val1) + "");
-							modificationMade = true;
-						}
-						if (modificationMade) {
-							ptr.setData(ptr.getRight().getData());
-							ptr.setLeft(ptr.getRight().getLeft());
-							ptr.setRight(ptr.getRight().getRight());
-						}
-					}
-				}
-				rightStr = ptr.getRight().getData();
-				leftStr = ptr.getLeft().getData();
-				if (ptr.getRight().isLeaf() || ptr.getLeft().isLeaf()) {
-					// Check for zero's or one's because they are a special cases that allows us to ignore big parts of the expression
-					// Check the right child for zero's
-					boolean foundZero = false;
-					if (rightStr.matches("-?0.0") || rightStr.equals("0")) {
-						if (ptr.getData().equals("+") || ptr.getData().equals("-")) {
-							ptr.setData(ptr.getLeft().getData());
-							ptr.setRight(ptr.getLeft().getRight());
-							ptr.setLeft(ptr.getLeft().getLeft());
-							return;
-						} else if (ptr.getData().equals("/"))
-							ptr.setData("Infinity");
-						foundZero = true;
-					}
-					// Check the right child for one's
-					else if ((rightStr.equals("1.0") || rightStr.equals("1")) && (ptr.getData().equals("^") || ptr.getData().equals("*"))) {
-						ptr.setData(ptr.getLeft().getData());
-						ptr.setRight(ptr.getLeft().getRight());
-						ptr.setLeft(ptr.getLeft().getLeft());
-					}
-					else if ((leftStr.equals("1.0") || leftStr.equals("1")) && ptr.getData().equals("*")) {
-						ptr.setData(ptr.getRight().getData());
-						ptr.setLeft(ptr.getRight().getLeft());
-						ptr.setRight(ptr.getRight().getRight());
-					}
-					// Check the left child for one's
-					else if ((leftStr.equals("1.0") || leftStr.equals("1")) && ptr.getData().equals("^")) {
-						ptr.setData("1.0");
-						ptr.setRight(null);
-						ptr.setLeft(null);
-					}
-					// Check the left child for zero's
-					if (leftStr.matches("-?0.0") || leftStr.equals("0")) {
-						if (ptr.getData().equals("+") || ptr.getData().equals("-")) {
-							ptr.setData(ptr.getRight().getData());
-							ptr.setLeft(ptr.getRight().getLeft());
-							ptr.setRight(ptr.getRight().getRight());
-							return;
-						} else if (ptr.getData().equals("/"))
-							ptr.setData("0.0");
-						foundZero = true;
-					}
-					// The general case of what to do if we see a zero
-					if (foundZero) {
-						if (ptr.getData().equals("*"))
-							ptr.setData("0.0");
-						ptr.setLeft(null);
-						ptr.setRight(null);
-						return;
-					}
-				}
-			} 
-			else {
-				// If both are numbers we minimize by changing to node to the result of its
-				// operation on it's children
-				Double val1 = Double.valueOf(rightStr);
-				Double val2 = Double.valueOf(leftStr);
-				ptr.setData(this.doCalculation(ptr.getData(), val1, val2) + "");
-				// Delete the children we minimized
-				ptr.setLeft(null);
-				ptr.setRight(null);
-			}
-		}
-	}
-	
-	// A method to rebuild the original expression from the tree
-	private String reconstructExpressionFromTree(Node<String> ptr) {
-		// We check if the node is a leaf we return its data
-		if (ptr.isLeaf())
-			return ptr.getData();
-		// Otherwise we recurse were possible
-		else {
-			String right = ptr.hasRight() ? this.reconstructExpressionFromTree(ptr.getRight()) : "";
-			String left = ptr.hasLeft() ? this.reconstructExpressionFromTree(ptr.getLeft()) : "";
-			// Check if extra brackets are needed
-			if (this.isSingleValueOperator(ptr.getData()) && !right.contains(" "))
-				right = "( " + right + " )";
-			return "( " + left + " " + ptr.getData() + " " + right + " )";
-		}
-	}
-	
-	// A method to calculate the derivative of this expression
-	public Expression findDerivative(String byWhatVar) throws Exception {
-		Expression derivative  = new Expression(this.findDerivative(this.treeRoot, byWhatVar));
-		return derivative.minimizeExpression();
-	}
-	
-	public String findDerivativeString(String byWhatVar) throws Exception {
-		return this.findDerivative(this.treeRoot, byWhatVar);
-	}
-	
-	// We calculate the derivative by looking for known patterns and recursing
-	private String findDerivative(Node<String> ptr, String byWhatVar) {
-		// Check is its variable were deriving from
-		if (ptr.getData().equals(byWhatVar))
-			return "1.0";
-		// Check if its a number or a variable were not deriving by
-		if (ptr.getData().matches(NUMBER_PATTERN) || this.getVariables().contains(ptr.getData()))
-			return "0.0";
-		// Look for common patters f + g / f * g / f / g / cos(f) ....
-		if (ptr.getData().equals("+") || ptr.getData().equals("-"))
-			return "( " + this.findDerivative(ptr.getLeft(), byWhatVar) + ") " + ptr.getData() + " (" + this.findDerivative(ptr.getRight(), byWhatVar) + " )";
-		String leftExp = ptr.hasLeft() ? this.reconstructExpressionFromTree(ptr.getLeft()) : "";
-		String rightExp = ptr.hasRight() ? this.reconstructExpressionFromTree(ptr.getRight()) : "";
-		if (ptr.getData().equals("^")) {
-			if (ptr.getRight().getData().matches(NUMBER_PATTERN))
-				return ptr.getRight().getData() + " * " + leftExp +" ^ " + (Double.parseDouble(ptr.getRight().getData()) - 1) + " * ( " + this.findDerivative(ptr.getLeft(), byWhatVar) + " )";
-			else 
-				return "( " + leftExp + " ^ " + rightExp + " ) * ( ( " + this.findDerivative(ptr.getLeft(), byWhatVar) + " / " + leftExp + " ) * " + rightExp + " + " + this.findDerivative(ptr.getRight(), byWhatVar) + " * ln( " + leftExp + " ) )";
-		}
-		if (ptr.getData().equals("*"))
-			return "(" + this.findDerivative(ptr.getRight(), byWhatVar) + " ) * " + leftExp + " + ( " + this.findDerivative(ptr.getLeft(), byWhatVar) + " ) * " + rightExp;
-		if (ptr.getData().equals("/"))
-			return "( ( " + this.findDerivative(ptr.getRight(), byWhatVar) + " ) * " + leftExp + " - ( " + this.findDerivative(ptr.getLeft(), byWhatVar) + " ) * " + this.findDerivative(ptr.getRight(), byWhatVar) + ") / ( " + rightExp + " ^ 2 )";
-		if (ptr.getData().equals("log"))
-			return "( " + this.findDerivative(ptr.getLeft(), byWhatVar) + " ) / ( ( " + leftExp + " ) * ln( " + rightExp + " ) )";
-		if (ptr.getData().equals("sin"))
-			return "( " + this.findDerivative(ptr.getRight(), byWhatVar) + " ) * cos( " + rightExp + " ) ";
-		if (ptr.getData().equals("asin"))
-			return "( " + this.findDerivative(ptr.getRight(), byWhatVar) + " ) / sqrt( 1 - (" + rightExp + ") ^ 2 ) ";
-		if (ptr.getData().equals("cos"))
-			return "( " + this.findDerivative(ptr.getRight(), byWhatVar) + " ) * -1 * sin( " + rightExp + " ) ";
-		if (ptr.getData().equals("acos"))
-			return "-1 * ( " + this.findDerivative(ptr.getRight(), byWhatVar) + " ) / sqrt( 1 - (" + rightExp + ") ^ 2 ) ";
-		if (ptr.getData().equals("tan"))
-			return "( " + this.findDerivative(ptr.getRight(), byWhatVar) + " ) / ( cos( " + ptr.getRight() + " ) ^ 2 )";
-		if (ptr.getData().equals("atan"))
-			return "( " + this.findDerivative(ptr.getRight(), byWhatVar) + " ) / ( ( " + rightExp + " ^ 2 ) + 1 )";
-		if (ptr.getData().equals("sqrt"))
-			return "( " + this.findDerivative(ptr.getRight(), byWhatVar) + " ) / ( 2 * sqrt( " + rightExp + " ) )";
-		if (ptr.getData().equals("ln"))
-			return "( " + this.findDerivative(ptr.getRight(), byWhatVar) + " ) / ( " + rightExp + " )";
-		return "";
-	}
-
-	@Override
-	public int hashCode() {
-		return this.getOriginalExpression().hashCode();
-	}
-
-	@Override
-	protected Expression clone() throws CloneNotSupportedException {
-		Expression newExp = new Expression(this.getVariables(), this.getOriginalExpression(), this.getPostfixExpression(), this.treeRoot);
-		return newExp;
-	}
-
-	@Override
-	public boolean equals(Object obj) {
-		if (obj instanceof Expression) {
-			Expression otherExp = ((Expression) obj);
-			return otherExp.reconstructExpressionFromTree(otherExp.treeRoot).equals(this.reconstructExpressionFromTree(this.treeRoot));
-		} else
-			return false;
-	}
-
-	@Override
-	public String toString() {
-		return this.treeRoot.toString();
-	}
-
-}
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+
+public class Expression implements Cloneable {
+
+	// Consents for operation priority
+	private static final int HIGH_PRIORITY = 3;
+	private static final int MEDIUM_PRIORITY = 2;
+	private static final int LOW_PRIORITY = 1;
+	private static final int ZERO_PRIORITY = 0;
+
+	// The priority of each built in operator and function, indexed by its opcode
+	private static final int[] PRECEDENCE = new int[Operation.FIRST_FUNCTION];
+	static {
+		PRECEDENCE[Operation.SQRT] = HIGH_PRIORITY;
+		PRECEDENCE[Operation.LN] = HIGH_PRIORITY;
+		PRECEDENCE[Operation.MAX] = HIGH_PRIORITY;
+		PRECEDENCE[Operation.MIN] = HIGH_PRIORITY;
+		PRECEDENCE[Operation.LOG] = HIGH_PRIORITY;
+		PRECEDENCE[Operation.SIN] = HIGH_PRIORITY;
+		PRECEDENCE[Operation.COS] = HIGH_PRIORITY;
+		PRECEDENCE[Operation.TAN] = HIGH_PRIORITY;
+		PRECEDENCE[Operation.ASIN] = HIGH_PRIORITY;
+		PRECEDENCE[Operation.ACOS] = HIGH_PRIORITY;
+		PRECEDENCE[Operation.ATAN] = HIGH_PRIORITY;
+		PRECEDENCE[Operation.POW] = MEDIUM_PRIORITY;
+		PRECEDENCE[Operation.MUL] = LOW_PRIORITY;
+		PRECEDENCE[Operation.DIV] = LOW_PRIORITY;
+		PRECEDENCE[Operation.ADD] = ZERO_PRIORITY;
+		PRECEDENCE[Operation.SUB] = ZERO_PRIORITY;
+	}
+
+	// Marks a left parenthesis on the operator stack while parsing
+	private static final int PARENTHESIS = -1;
+
+	// A list for variables
+	private LinkedHashSet<String> variables;
+
+	// Storing the original expression and its infix version
+	// Expressions built from a typed tree create these from it on first use
+	private volatile String originalExpression;
+	private volatile Queue<String> postfixExpression;
+
+	// The binary expression tree root used for minimization and printing
+	private volatile Node<String> treeRoot;
+
+	// The typed version of the tree used for evaluating the expression
+	private EvalNode evaluationRoot;
+
+	// The stack machine version of the tree, compiled on first use
+	private StackProgram program;
+
+	// The generated class version of the tree, compiled on first use
+	private CompiledExpression compiled;
+
+	// The default number of rows each parallel task evaluates
+	private static final int DEFAULT_GRANULARITY = 16384;
+
+	// The reconstructed text of the tree, built on first use
+	private String canonicalForm;
+
+	// Used when evaluating an expression without variables
+	private static final double[] NO_VALUES = new double[0];
+
+	// The evaluation counters of this expression, only created once something is recorded while ExpressionMetrics is enabled
+	// or they're asked for, so expressions that are never counted don't pay for them
+	private volatile ExpressionMetrics metrics;
+
+	// A constructor to initialize a new expression
+	public Expression(String expression) throws Exception {
+		ExpressionEvents.ParseEvent event = new ExpressionEvents.ParseEvent();
+		event.begin();
+		this.variables = new LinkedHashSet<String>();
+		this.originalExpression = expression;
+		this.evaluationRoot = this.parse(expression, this.variables);
+		event.end();
+		if (event.shouldCommit()) {
+			event.expressionLength = expression.length();
+			event.nodes = ExpressionEvents.nodeCount(this.evaluationRoot);
+			event.variables = this.variables.size();
+			event.commit();
+		}
+	}
+
+	// A constructor for expressions built directly from a typed tree over the given variables
+	// Used by the expression itself and by the classes that load typed trees without parsing them
+	Expression(LinkedHashSet<String> variables, EvalNode evaluationRoot) {
+		this.variables = new LinkedHashSet<String>(variables);
+		this.evaluationRoot = evaluationRoot;
+	}
+
+	// Getters for the original expression and its postfix version
+	public String getOriginalExpression() {
+		if (this.originalExpression == null) {
+			String reconstructed = this.reconstructExpressionFromTree(this.tree());
+			if (reconstructed.charAt(0) == '(')
+				reconstructed = reconstructed.substring(1, reconstructed.length() - 1);
+			this.originalExpression = reconstructed;
+		}
+		return this.originalExpression;
+	}
+
+	// Expressions are shared between threads so the getters return copies instead of the internal collections
+	public Queue<String> getPostfixExpression() {
+		if (this.postfixExpression == null) {
+			Queue<String> postfix = new LinkedList<String>();
+			this.addPostfix(this.tree(), postfix);
+			this.postfixExpression = postfix;
+		}
+		return new LinkedList<String>(this.postfixExpression);
+	}
+
+	// Walks the tree with a explicit stack, a node is written once both of its children are
+	private void addPostfix(Node<String> root, Queue<String> postfix) {
+		ArrayList<Node<String>> stack = new ArrayList<Node<String>>();
+		ArrayList<Boolean> expanded = new ArrayList<Boolean>();
+		stack.add(root);
+		expanded.add(false);
+		while (!stack.isEmpty()) {
+			int top = stack.size() - 1;
+			Node<String> ptr = stack.get(top);
+			if (expanded.get(top)) {
+				stack.remove(top);
+				expanded.remove(top);
+				postfix.add(ptr.getData());
+				continue;
+			}
+			expanded.set(top, true);
+			if (ptr.hasRight()) {
+				stack.add(ptr.getRight());
+				expanded.add(false);
+			}
+			if (ptr.hasLeft()) {
+				stack.add(ptr.getLeft());
+				expanded.add(false);
+			}
+		}
+	}
+
+	// Returns the expression tree, building it from the typed tree if this expression was created from one
+	private Node<String> tree() {
+		if (this.treeRoot == null)
+			this.treeRoot = this.buildTree(this.evaluationRoot, this.variables.toArray(new String[0]));
+		return this.treeRoot;
+	}
+
+	// Getter for the list of variables
+	public LinkedHashSet<String> getVariables() {
+		return new LinkedHashSet<String>(this.variables);
+	}
+
+	// The typed tree, shared with the other classes that compile or combine expressions
+	EvalNode getEvaluationRoot() {
+		return this.evaluationRoot;
+	}
+
+	// Parses a expression straight into its typed tree using the shunting-yard algorithm
+	// Source: https://en.wikipedia.org/wiki/Shunting-yard_algorithm
+	// The variables found are added to the given set in the order they are discovered, which also gives them their slot
+	private EvalNode parse(CharSequence expression, LinkedHashSet<String> variables) throws Exception {
+		CommonSubexpressions nodes = new CommonSubexpressions();
+		// The output holds values instead of postfix tokens, operators are applied to it as soon as they are popped
+		ArrayList<EvalNode> output = new ArrayList<EvalNode>();
+		int[] operators = new int[16];
+		int top = -1;
+		ArrayList<String> slotNames = new ArrayList<String>();
+		// Whether the next token should be a value, a minus sign there negates the value instead of subtracting
+		boolean expectValue = true, negate = false;
+		Lexer lexer = new Lexer(expression);
+		for (int kind = lexer.next(); kind != Lexer.END; kind = lexer.next()) {
+			if (operators.length - top < 3)
+				operators = Arrays.copyOf(operators, operators.length * 2);
+			if (kind == Lexer.OPERATOR && lexer.opcode() == Operation.SUB && expectValue) {
+				negate = !negate;
+				continue;
+			}
+			// Negative numbers are read as a single number, anything else that's negative is multiplied by -1
+			if (negate && kind != Lexer.NUMBER && kind != Lexer.OPERATOR) {
+				output.add(nodes.constant(-1));
+				operators[++top] = Operation.MUL;
+				negate = false;
+			}
+			switch (kind) {
+			case Lexer.NUMBER:
+				output.add(nodes.constant(negate ? -lexer.number() : lexer.number()));
+				negate = false;
+				expectValue = false;
+				break;
+			case Lexer.VARIABLE:
+				output.add(nodes.variable(this.slotOf(lexer, slotNames, variables)));
+				expectValue = false;
+				break;
+			case Lexer.FUNCTION:
+				operators[++top] = lexer.opcode();
+				break;
+			case Lexer.LEFT_PARENTHESIS:
+				operators[++top] = PARENTHESIS;
+				expectValue = true;
+				break;
+			case Lexer.RIGHT_PARENTHESIS:
+				while (top >= 0 && operators[top] != PARENTHESIS)
+					this.applyOperator(operators[top--], output, nodes);
+				if (top < 0)
+					throw new Exception("Mismatched parenthesis!");
+				top--;
+				// The function the parenthesis belong to
+				if (top >= 0 && operators[top] != PARENTHESIS && precedence(operators[top]) == HIGH_PRIORITY)
+					this.applyOperator(operators[top--], output, nodes);
+				expectValue = false;
+				break;
+			case Lexer.COMMA:
+				// Finish the first argument of a function
+				while (top >= 0 && operators[top] != PARENTHESIS)
+					this.applyOperator(operators[top--], output, nodes);
+				expectValue = true;
+				break;
+			default:
+				int opcode = lexer.opcode();
+				while (top >= 0 && operators[top] != PARENTHESIS
+						&& (precedence(opcode) < precedence(operators[top]) || (precedence(opcode) == precedence(operators[top]) && opcode != Operation.POW)))
+					this.applyOperator(operators[top--], output, nodes);
+				operators[++top] = opcode;
+				expectValue = true;
+			}
+		}
+		// If any operators are left apply them all
+		while (top >= 0) {
+			if (operators[top] == PARENTHESIS)
+				throw new Exception("Mismatched parenthesis!");
+			this.applyOperator(operators[top--], output, nodes);
+		}
+		if (output.size() != 1)
+			throw new Exception("Malformed expression!: " + expression);
+		return output.get(0);
+	}
+
+	// Registered functions bind like the built in ones
+	private static int precedence(int opcode) {
+		return opcode < Operation.FIRST_FUNCTION ? PRECEDENCE[opcode] : HIGH_PRIORITY;
+	}
+
+	// Returns the slot of the variable the lexer is on, adding the variable if it's new
+	private int slotOf(Lexer lexer, ArrayList<String> slotNames, LinkedHashSet<String> variables) {
+		for (int i = 0; i < slotNames.size(); i++)
+			if (lexer.tokenEquals(slotNames.get(i)))
+				return i;
+		String name = lexer.tokenText();
+		slotNames.add(name);
+		variables.add(name);
+		return slotNames.size() - 1;
+	}
+
+	// Replaces the values a operator needs at the end of the output with the operator's node
+	private void applyOperator(int opcode, ArrayList<EvalNode> output, CommonSubexpressions nodes) throws Exception {
+		int operandCount = Operation.isUnary(opcode) ? 1 : 2;
+		if (output.size() < operandCount)
+			throw new Exception("Missing value for operator!: " + Operation.symbol(opcode));
+		EvalNode right = output.remove(output.size() - 1);
+		EvalNode left = operandCount == 2 ? output.remove(output.size() - 1) : null;
+		output.add(nodes.operator(opcode, left, right));
+	}
+
+	// Converts a typed tree back to a expression tree
+	// The expression tree is never changed so shared nodes are shared by the expression tree too, instead of copied for each parent
+	private Node<String> buildTree(EvalNode root, String[] variableNames) {
+		IdentityHashMap<EvalNode, Node<String>> built = new IdentityHashMap<EvalNode, Node<String>>();
+		for (EvalNode node : CommonSubexpressions.postfixOrder(root)) {
+			Node<String> treeNode;
+			if (node instanceof EvalNode.Constant)
+				treeNode = new Node<String>(((EvalNode.Constant) node).getValue() + "");
+			else if (node instanceof EvalNode.Variable)
+				treeNode = new Node<String>(variableNames[((EvalNode.Variable) node).getSlot()]);
+			else {
+				EvalNode.Operator operator = (EvalNode.Operator) node;
+				Node<String> left = operator.getLeft() == null ? null : built.get(operator.getLeft());
+				treeNode = new Node<String>(Operation.symbol(operator.getOpcode()), built.get(operator.getRight()), left);
+			}
+			built.put(node, treeNode);
+		}
+		return built.get(root);
+	}
+
+	// Evaluation method for the expression tree to solve the expression
+	public Double evaluate() throws Exception {
+		// We check if we have variables and we were'nt given values for them we throw
+		// an error
+		// Because we can't complete the evaluation
+		if (!this.variables.isEmpty())
+			throw new Exception("Missing value for variables!: " + this.variables);
+		return this.evaluateRoot(NO_VALUES);
+	}
+
+	public Double evaluate(Double... variableValues) throws Exception {
+		// We map out each variable to its corresponding value by the order
+		// The values are given, and by the order the variables were discovered
+		// e.g: for x + y + z
+		// The first given value will go to x
+		// The second for y
+		// The third for z
+		// And so on
+		double[] values = new double[Math.min(variableValues.length, this.variables.size())];
+		for (int i = 0; i < values.length; i++)
+			values[i] = variableValues[i];
+		return this.evaluate(values);
+	}
+
+	// Evaluates the expression without boxing, the values are given in the same order as above
+	public double evaluate(double[] variableValues) throws Exception {
+		this.checkValueCount(variableValues.length);
+		return this.evaluateRoot(variableValues);
+	}
+
+	// Creates reusable values for this expression's variables, each variable's slot matches the order above
+	public Bindings newBindings() {
+		return new Bindings(this.variables.toArray(new String[0]));
+	}
+
+	// Creates a evaluator that keeps the values of the nodes and only recomputes what depends on the variables that changed
+	public IncrementalEvaluator newIncrementalEvaluator() {
+		return new IncrementalEvaluator(this);
+	}
+
+	// Evaluates the expression with values set on bindings from newBindings()
+	public double evaluate(Bindings bindings) throws Exception {
+		if (bindings.size() != this.variables.size())
+			throw new Exception("The bindings don't belong to this expression!");
+		bindings.checkComplete();
+		return this.evaluateRoot(bindings.getValues());
+	}
+
+	// Evaluates the stack program, which computes every shared subexpression once, timing it only when the metrics are enabled
+	private double evaluateRoot(double[] values) {
+		if (!ExpressionMetrics.isEnabled())
+			return this.toProgram().evaluate(values);
+		long start = System.nanoTime();
+		double result = this.toProgram().evaluate(values);
+		this.getMetrics().record(1, System.nanoTime() - start, false);
+		return result;
+	}
+
+	// The evaluation counters of this expression
+	// They're created on first use, under a lock so threads racing to create them don't lose counts
+	public ExpressionMetrics getMetrics() {
+		ExpressionMetrics metrics = this.metrics;
+		if (metrics == null)
+			synchronized (this) {
+				if (this.metrics == null)
+					this.metrics = new ExpressionMetrics();
+				metrics = this.metrics;
+			}
+		return metrics;
+	}
+
+	// Throws an error listing the variables left without a value when not enough values were given
+	private void checkValueCount(int valueCount) throws Exception {
+		if (valueCount < this.variables.size()) {
+			Iterator<String> variableIterator = this.variables.iterator();
+			for (int i = 0; i < valueCount; i++)
+				variableIterator.next();
+			StringBuilder missingValueVars = new StringBuilder("[");
+			while (variableIterator.hasNext())
+				missingValueVars.append(variableIterator.next()).append(',');
+			missingValueVars.setCharAt(missingValueVars.length() - 1, ']');
+			throw new Exception("Missing values for variables!: " + missingValueVars);
+		}
+	}
+
+	// Evaluates the expression for many rows at once, one column of values per variable in the order above
+	public void evaluate(double[][] variableColumns, double[] output) throws Exception {
+		this.evaluate(variableColumns, output, 0, output.length);
+	}
+
+	// Evaluates rows offset to offset + length, the result of each row is written to the same index of the output
+	public void evaluate(double[][] variableColumns, double[] output, int offset, int length) throws Exception {
+		this.checkValueCount(variableColumns.length);
+		if (length <= 0)
+			return;
+		ExpressionEvents.EvaluationBatchEvent event = new ExpressionEvents.EvaluationBatchEvent();
+		event.begin();
+		long start = ExpressionMetrics.isEnabled() ? System.nanoTime() : 0;
+		this.toProgram().evaluate(variableColumns, output, offset, length);
+		this.recordBatch(event, start, length, false);
+	}
+
+	// Commits the event of a batch and adds it to the metrics if they were enabled when it started
+	private void recordBatch(ExpressionEvents.EvaluationBatchEvent event, long start, int rows, boolean parallel) {
+		if (start != 0)
+			this.getMetrics().record(rows, System.nanoTime() - start, true);
+		event.end();
+		if (event.shouldCommit()) {
+			event.rows = rows;
+			event.parallel = parallel;
+			event.nodes = this.toProgram().getOperationCount();
+			event.variables = this.variables.size();
+			event.commit();
+		}
+	}
+
+	// Evaluates the rows in parallel on the common fork/join pool
+	public void evaluateParallel(double[][] variableColumns, double[] output) throws Exception {
+		this.evaluateParallel(variableColumns, output, 0, output.length, ForkJoinPool.commonPool(), DEFAULT_GRANULARITY);
+	}
+
+	// Evaluates rows offset to offset + length on the given pool
+	// The rows are split into chunks of at most granularity rows and each chunk is evaluated as a batch
+	public void evaluateParallel(double[][] variableColumns, double[] output, int offset, int length, ForkJoinPool pool, int granularity) throws Exception {
+		this.checkValueCount(variableColumns.length);
+		if (granularity < 1)
+			throw new Exception("Granularity must be positive!: " + granularity);
+		if (length <= 0)
+			return;
+		ExpressionEvents.EvaluationBatchEvent event = new ExpressionEvents.EvaluationBatchEvent();
+		event.begin();
+		long start = ExpressionMetrics.isEnabled() ? System.nanoTime() : 0;
+		pool.invoke(new EvaluationTask(this.toProgram(), variableColumns, output, offset, length, granularity));
+		this.recordBatch(event, start, length, true);
+	}
+
+	// Returns the expression compiled into a flat stack machine program
+	// The program is immutable so it's compiled once and shared, compiling it twice in a race is harmless
+	public StackProgram toProgram() {
+		if (this.program == null)
+			this.program = StackProgram.compile(this.evaluationRoot);
+		return this.program;
+	}
+
+	// Returns the expression compiled into a generated JVM class
+	// If the expression can't be compiled the result falls back to the tree evaluator
+	public CompiledExpression compile() {
+		if (this.compiled == null)
+			this.compiled = BytecodeCompiler.compile(this.evaluationRoot);
+		return this.compiled;
+	}
+
+	// A method to check if a token is a single value operator
+	private boolean isSingleValueOperator(String token) {
+		int opcode = Operation.fromToken(token);
+		return opcode != -1 && Operation.isUnary(opcode);
+	}
+
+	// A method to approximate the area under the expression graph in a given range 
+	// Using a Riemann-Sum with a given interval, the smaller the interval the more accurate the result
+	public Double approximateAreaUnderTheGraph(Double startPoint, Double endPoint, Double intreval) throws Exception {
+		if (this.variables.size() > 1)
+			throw new Exception("This method only works for single variable expresisons!");
+		double integralSum = 0.0, interval = intreval;
+		double[] values = new double[1];
+		StackProgram program = this.toProgram();
+		double[] stack = program.newStack();
+		// We sum up the area of the rectangles that are approximately equal to the area under a small portion of the graph
+		for (double i = startPoint; i <= endPoint; i += interval) {
+			values[0] = i;
+			double currentRectangleArea = program.evaluate(values, stack) * interval;
+			if (!Double.isInfinite(currentRectangleArea))
+				integralSum += Math.abs(currentRectangleArea);
+		}
+		return integralSum;
+	}
+
+	// Integrates a single variable expression from start to end with adaptive Gauss-Kronrod quadrature
+	// Unlike the method above the result is signed and its error estimate is below the tolerance
+	public IntegrationResult integrate(double startPoint, double endPoint, double tolerance) throws Exception {
+		return Integrator.gaussKronrod(this, startPoint, endPoint, tolerance);
+	}
+	
+	// A way to minimize parts of the expression to speed up the evaluation process and take up less space
+	// For example: x + 5 + 4 * 1 will turn into x + 9
+	// Returns a minimized expression over the same variables, built directly from the simplified tree
+	public Expression minimizeExpression() {
+		ExpressionEvents.MinimizeEvent event = new ExpressionEvents.MinimizeEvent();
+		event.begin();
+		EvalNode minimized = new Simplifier().simplify(this.evaluationRoot);
+		event.end();
+		if (event.shouldCommit()) {
+			event.nodes = ExpressionEvents.nodeCount(this.evaluationRoot);
+			event.minimizedNodes = ExpressionEvents.nodeCount(minimized);
+			event.variables = this.variables.size();
+			event.commit();
+		}
+		return new Expression(this.variables, minimized);
+	}
+	
+	// Binds some of the variables to constants and simplifies the result like minimizeExpression does
+	// Returns a expression over the remaining variables, which keep their order
+	public Expression specialize(Map<String, Double> boundValues) throws Exception {
+		for (String variable : boundValues.keySet())
+			if (!this.variables.contains(variable))
+				throw new Exception("Unknown variable!: " + variable);
+		CommonSubexpressions nodes = new CommonSubexpressions();
+		LinkedHashSet<String> remainingVariables = new LinkedHashSet<String>();
+		EvalNode[] slotNodes = new EvalNode[this.variables.size()];
+		int slot = 0;
+		for (String variable : this.variables) {
+			Double value = boundValues.get(variable);
+			if (value != null)
+				slotNodes[slot++] = nodes.constant(value);
+			else {
+				slotNodes[slot++] = nodes.variable(remainingVariables.size());
+				remainingVariables.add(variable);
+			}
+		}
+		EvalNode specialized = nodes.substitute(this.evaluationRoot, slotNodes, new IdentityHashMap<EvalNode, EvalNode>());
+		return new Expression(remainingVariables, new Simplifier(nodes).simplify(specialized));
+	}
+
+	public Expression specialize(String variable, double value) throws Exception {
+		return this.specialize(Collections.singletonMap(variable, value));
+	}
+
+	// A method to rebuild the original expression from the tree
+	// The text is written into one builder while walking the tree with a explicit stack, which holds nodes still to write and finished strings
+	private String reconstructExpressionFromTree(Node<String> root) {
+		StringBuilder text = new StringBuilder();
+		ArrayList<Object> stack = new ArrayList<Object>();
+		stack.add(root);
+		while (!stack.isEmpty()) {
+			Object item = stack.remove(stack.size() - 1);
+			if (item instanceof String) {
+				text.append((String) item);
+				continue;
+			}
+			@SuppressWarnings("unchecked")
+			Node<String> ptr = (Node<String>) item;
+			// We check if the node is a leaf we write its data
+			if (ptr.isLeaf()) {
+				text.append(ptr.getData());
+				continue;
+			}
+			// Otherwise we write "( left data right )", pushed in reverse order
+			// A single value operator on a leaf gets extra brackets
+			boolean bracketRight = this.isSingleValueOperator(ptr.getData()) && (!ptr.hasRight() || ptr.getRight().isLeaf());
+			stack.add(bracketRight ? " ) )" : " )");
+			if (ptr.hasRight())
+				stack.add(ptr.getRight());
+			stack.add(" " + ptr.getData() + (bracketRight ? " ( " : " "));
+			if (ptr.hasLeft())
+				stack.add(ptr.getLeft());
+			text.append("( ");
+		}
+		return text.toString();
+	}
+	
+	// A method to calculate the derivative of this expression
+	// The derivative is built directly from the typed tree and keeps all of the variables so their slots stay the same
+	public Expression findDerivative(String byWhatVar) {
+		return this.findDerivative(byWhatVar, 1);
+	}
+
+	public String findDerivativeString(String byWhatVar) {
+		return this.findDerivative(byWhatVar).getOriginalExpression();
+	}
+
+	// Differentiates the expression order times by the same variable
+	public Expression findDerivative(String byWhatVar, int order) {
+		ExpressionEvents.DerivativeEvent event = new ExpressionEvents.DerivativeEvent();
+		event.begin();
+		int slot = this.slotOf(byWhatVar);
+		CommonSubexpressions nodes = new CommonSubexpressions();
+		EvalNode derivative = this.evaluationRoot;
+		for (int i = 0; i < order; i++)
+			derivative = new Simplifier(nodes).simplify(new Derivative(slot, nodes).differentiate(derivative));
+		event.end();
+		if (event.shouldCommit()) {
+			event.variable = byWhatVar;
+			event.order = order;
+			event.nodes = ExpressionEvents.nodeCount(this.evaluationRoot);
+			event.derivativeNodes = ExpressionEvents.nodeCount(derivative);
+			event.variables = this.variables.size();
+			event.commit();
+		}
+		return new Expression(this.variables, derivative);
+	}
+
+	// Returns the derivative by each variable in the order the variables were discovered
+	// The derivatives are built from the same nodes so sub trees they have in common are shared between them
+	public Expression[] findGradient() {
+		CommonSubexpressions nodes = new CommonSubexpressions();
+		Expression[] gradient = new Expression[this.variables.size()];
+		for (int slot = 0; slot < gradient.length; slot++)
+			gradient[slot] = new Expression(this.variables, new Simplifier(nodes).simplify(new Derivative(slot, nodes).differentiate(this.evaluationRoot)));
+		return gradient;
+	}
+
+	// Creates a evaluator computing the value and the whole gradient numerically in one pass, without symbolic derivatives
+	public GradientEvaluator newGradientEvaluator() {
+		return new GradientEvaluator(this);
+	}
+
+	// Creates a evaluator that bounds the values of the expression over ranges of its variables
+	public IntervalEvaluator newIntervalEvaluator() {
+		return new IntervalEvaluator(this);
+	}
+
+	// Returns the slot of a variable or -1 if the expression doesn't have it
+	private int slotOf(String variable) {
+		int slot = 0;
+		for (String name : this.variables) {
+			if (name.equals(variable))
+				return slot;
+			slot++;
+		}
+		return -1;
+	}
+
+	// The text of the tree, equal expressions have equal trees so equals and hashCode both use it
+	private String canonicalForm() {
+		if (this.canonicalForm == null)
+			this.canonicalForm = this.reconstructExpressionFromTree(this.tree());
+		return this.canonicalForm;
+	}
+
+	@Override
+	public int hashCode() {
+		return this.canonicalForm().hashCode();
+	}
+
+	@Override
+	protected Expression clone() throws CloneNotSupportedException {
+		// The typed tree is immutable so the clone shares it
+		Expression newExp = new Expression(this.variables, this.evaluationRoot);
+		newExp.originalExpression = this.originalExpression;
+		return newExp;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof Expression) {
+			Expression otherExp = ((Expression) obj);
+			return otherExp.canonicalForm().equals(this.canonicalForm());
+		} else
+			return false;
+	}
+
+	@Override
+	public String toString() {
+		return this.tree().toString();
+	}
+
+}
@@ -0,0 +1,147 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// A bounded thread safe cache of parsed expressions keyed by their text
+// The text is normalized by removing the whitespace that doesn't separate tokens, so "x + 1" and "x+1" share an entry
+// Entries are split between segments that each have their own lock and evict their least recently used entry
+// Expressions are safe to share between threads so the same instance is returned to every caller
+public final class ExpressionCache {
+
+	private static final int DEFAULT_SEGMENT_COUNT = 16;
+
+	private final Segment[] segments;
+	private final int maximumSize;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public ExpressionCache(int maximumSize) {
+		this(maximumSize, DEFAULT_SEGMENT_COUNT);
+	}
+
+	public ExpressionCache(int maximumSize, int segmentCount) {
+		if (maximumSize < 1 || segmentCount < 1)
+			throw new IllegalArgumentException("The cache size and segment count must be positive!");
+		segmentCount = Math.min(segmentCount, maximumSize);
+		this.maximumSize = maximumSize;
+		this.segments = new Segment[segmentCount];
+		// Spread the capacity over the segments so the total never passes the maximum size
+		for (int i = 0; i < segmentCount; i++)
+			this.segments[i] = new Segment(maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0));
+	}
+
+	// Returns the cached expression for the text, parsing and caching it on a miss
+	public Expression get(String expression) throws Exception {
+		String key = normalize(expression);
+		Segment segment = this.segmentFor(key);
+		Expression cached;
+		synchronized (segment) {
+			cached = segment.get(key);
+		}
+		if (cached != null) {
+			this.hits.increment();
+			return cached;
+		}
+		this.misses.increment();
+		// Parse outside of the lock so a slow parse doesn't block the rest of the segment
+		Expression parsed = new Expression(expression);
+		synchronized (segment) {
+			cached = segment.get(key);
+			if (cached != null)
+				return cached;
+			segment.put(key, parsed);
+		}
+		return parsed;
+	}
+
+	// Removes every entry, the counters are kept
+	public void clear() {
+		for (Segment segment : this.segments)
+			synchronized (segment) {
+				segment.clear();
+			}
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : this.segments)
+			synchronized (segment) {
+				size += segment.size();
+			}
+		return size;
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	public long getHitCount() {
+		return this.hits.sum();
+	}
+
+	public long getMissCount() {
+		return this.misses.sum();
+	}
+
+	public long getEvictionCount() {
+		return this.evictions.sum();
+	}
+
+	// The cache key of a expression text, texts with the same key are read into the same tokens
+	// Whitespace only separates tokens between letters, digits and dots, like in "2 3" or "x y", so a single space is kept there
+	// and every other whitespace is removed
+	public static String normalize(String expression) {
+		StringBuilder normalized = new StringBuilder(expression.length());
+		for (int i = 0; i < expression.length(); i++) {
+			char c = expression.charAt(i);
+			if (!Character.isWhitespace(c)) {
+				normalized.append(c);
+				continue;
+			}
+			int next = i + 1;
+			while (next < expression.length() && Character.isWhitespace(expression.charAt(next)))
+				next++;
+			if (normalized.length() > 0 && next < expression.length() && isNamePart(normalized.charAt(normalized.length() - 1)) && isNamePart(expression.charAt(next)))
+				normalized.append(' ');
+			i = next - 1;
+		}
+		return normalized.toString();
+	}
+
+	// Whether a character can be part of a number or a name, the lexer reads runs of them as one token
+	private static boolean isNamePart(char c) {
+		return Character.isLetterOrDigit(c) || c == '.';
+	}
+
+	private Segment segmentFor(String key) {
+		// Mix the hash so keys with similar hashes still spread over the segments
+		int hash = key.hashCode();
+		hash ^= hash >>> 16;
+		return this.segments[(hash & 0x7fffffff) % this.segments.length];
+	}
+
+	// A access ordered map that drops its eldest entry when it's full
+	private final class Segment extends LinkedHashMap<String, Expression> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		private Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+			if (this.size() > this.capacity) {
+				ExpressionCache.this.evictions.increment();
+				return true;
+			}
+			return false;
+		}
+
+	}
+
+}
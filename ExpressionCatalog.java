@@ -0,0 +1,190 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+// Writes named expressions to a binary file and loads them back without parsing any text
+// Loading a catalog maps the file and rebuilds every typed tree straight from its opcodes, constants and variable tables
+//
+// The format, all numbers big endian:
+//   int magic, int version, int expression count
+//   for every expression:
+//     string name, int variable count, string for every variable in slot order
+//     int node count, then the nodes in postfix order so the operands of a node come before it and the root is last:
+//       byte CONSTANT, double value
+//       byte VARIABLE, int slot
+//       byte OPERATOR, byte opcode, int left node index or -1 for single value operators, int right node index
+//       byte FUNCTION, string name, int left node index or -1 for single value functions, int right node index
+//   registered functions are written by name since their opcodes depend on the order they were registered in
+//   strings are a int byte length followed by UTF-8 bytes
+// Nodes shared in the DAG are written once and referenced by index, so they stay shared after loading
+public final class ExpressionCatalog {
+
+	private static final int MAGIC = 0x45515043;
+	// Changes whenever the format or the opcodes of Operation change
+	// Older versions can still be read
+	private static final int VERSION = 2;
+
+	private static final byte CONSTANT = 0;
+	private static final byte VARIABLE = 1;
+	private static final byte OPERATOR = 2;
+	private static final byte FUNCTION = 3;
+
+	private ExpressionCatalog() {
+	}
+
+	// Writes the expressions to the file in the order of the map, replacing the file if it exists
+	public static void write(Map<String, Expression> expressions, Path file) throws Exception {
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(expressions.size());
+			for (Map.Entry<String, Expression> entry : expressions.entrySet()) {
+				writeString(output, entry.getKey());
+				LinkedHashSet<String> variables = entry.getValue().getVariables();
+				output.writeInt(variables.size());
+				for (String variable : variables)
+					writeString(output, variable);
+				IdentityHashMap<EvalNode, Integer> indices = new IdentityHashMap<EvalNode, Integer>();
+				ArrayList<EvalNode> nodes = CommonSubexpressions.postfixOrderWithIndices(entry.getValue().getEvaluationRoot(), indices);
+				output.writeInt(nodes.size());
+				for (EvalNode node : nodes)
+					writeNode(output, node, indices);
+			}
+		} finally {
+			output.close();
+		}
+	}
+
+	// Loads every expression of the file, the map keeps the order they were written in
+	public static LinkedHashMap<String, Expression> read(Path file) throws Exception {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			channel.close();
+		}
+	}
+
+	// Loads every expression from a buffer holding a catalog, starting at the buffer's position
+	public static LinkedHashMap<String, Expression> read(ByteBuffer buffer) throws Exception {
+		try {
+			return readExpressions(buffer);
+		} catch (BufferUnderflowException e) {
+			throw new Exception("Malformed catalog!: the catalog ends in the middle of a expression");
+		}
+	}
+
+	private static LinkedHashMap<String, Expression> readExpressions(ByteBuffer buffer) throws Exception {
+		if (buffer.remaining() < 12 || buffer.getInt() != MAGIC)
+			throw new Exception("Not a expression catalog!");
+		int version = buffer.getInt();
+		if (version < 1 || version > VERSION)
+			throw new Exception("Unsupported catalog version!: " + version);
+		int count = buffer.getInt();
+		LinkedHashMap<String, Expression> expressions = new LinkedHashMap<String, Expression>();
+		for (int i = 0; i < count; i++) {
+			String name = readString(buffer);
+			int variableCount = buffer.getInt();
+			// Every name takes at least the 4 bytes of its length
+			if (variableCount < 0 || variableCount > buffer.remaining() / 4)
+				throw new Exception("Malformed catalog!: " + name + " has " + variableCount + " variables");
+			LinkedHashSet<String> variables = new LinkedHashSet<String>();
+			for (int j = 0; j < variableCount; j++) {
+				String variable = readString(buffer);
+				// The slots of the nodes are places in the variables, a name twice would shift every slot after it
+				if (!variables.add(variable))
+					throw new Exception("Malformed catalog!: " + name + " has the variable " + variable + " twice");
+			}
+			int nodeCount = buffer.getInt();
+			if (nodeCount <= 0)
+				throw new Exception("Malformed catalog!: " + name + " has no nodes");
+			// Every node takes more than a byte, so a count bigger than the bytes left can only be corrupt
+			if (nodeCount > buffer.remaining())
+				throw new Exception("Malformed catalog!: " + name + " has more nodes than the catalog has bytes");
+			EvalNode[] nodes = new EvalNode[nodeCount];
+			for (int j = 0; j < nodes.length; j++)
+				nodes[j] = readNode(buffer, nodes, j, variableCount);
+			expressions.put(name, new Expression(variables, nodes[nodes.length - 1]));
+		}
+		return expressions;
+	}
+
+	private static void writeNode(DataOutputStream output, EvalNode node, IdentityHashMap<EvalNode, Integer> indices) throws Exception {
+		if (node instanceof EvalNode.Constant) {
+			output.writeByte(CONSTANT);
+			output.writeDouble(((EvalNode.Constant) node).getValue());
+		} else if (node instanceof EvalNode.Variable) {
+			output.writeByte(VARIABLE);
+			output.writeInt(((EvalNode.Variable) node).getSlot());
+		} else {
+			EvalNode.Operator operator = (EvalNode.Operator) node;
+			if (operator.getOpcode() >= Operation.FIRST_FUNCTION) {
+				output.writeByte(FUNCTION);
+				writeString(output, Operation.symbol(operator.getOpcode()));
+			} else {
+				output.writeByte(OPERATOR);
+				output.writeByte(operator.getOpcode());
+			}
+			output.writeInt(operator.getLeft() == null ? -1 : indices.get(operator.getLeft()));
+			output.writeInt(indices.get(operator.getRight()));
+		}
+	}
+
+	// Reads node index of a expression, operands may only point to nodes that were already read
+	private static EvalNode readNode(ByteBuffer buffer, EvalNode[] nodes, int index, int variableCount) throws Exception {
+		byte kind = buffer.get();
+		if (kind == CONSTANT)
+			return new EvalNode.Constant(buffer.getDouble());
+		if (kind == VARIABLE) {
+			int slot = buffer.getInt();
+			if (slot < 0 || slot >= variableCount)
+				throw new Exception("Malformed catalog!: variable slot " + slot + " out of range");
+			return new EvalNode.Variable(slot);
+		}
+		int opcode;
+		if (kind == FUNCTION) {
+			String name = readString(buffer);
+			opcode = FunctionRegistry.opcodeOf(name);
+			if (opcode == -1)
+				throw new Exception("Unknown function!: " + name);
+		} else if (kind == OPERATOR) {
+			opcode = buffer.get();
+			if (opcode < 0 || opcode >= Operation.FIRST_FUNCTION)
+				throw new Exception("Malformed catalog!: unknown opcode " + opcode);
+		} else
+			throw new Exception("Malformed catalog!: unknown node kind " + kind);
+		int left = buffer.getInt(), right = buffer.getInt();
+		boolean leftValid = Operation.isUnary(opcode) ? left == -1 : left >= 0 && left < index;
+		if (!leftValid || right < 0 || right >= index)
+			throw new Exception("Malformed catalog!: bad operands for node " + index);
+		return new EvalNode.Operator(opcode, left == -1 ? null : nodes[left], nodes[right]);
+	}
+
+	private static void writeString(DataOutputStream output, String value) throws Exception {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) throws Exception {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining())
+			throw new Exception("Malformed catalog!: string length " + length + " out of range");
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,99 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// JDK Flight Recorder events for the expensive parts of working with expressions
+// The events are only filled in and committed while a recording has them enabled, otherwise begin and end are close to free
+// Usage: ParseEvent event = new ParseEvent(); event.begin(); ... event.end(); if (event.shouldCommit()) { ... event.commit(); }
+final class ExpressionEvents {
+
+	private static final String CATEGORY = "Equation Parser";
+
+	private ExpressionEvents() {
+	}
+
+	// The number of distinct nodes in a typed tree, only computed for events that are committed
+	static int nodeCount(EvalNode root) {
+		return CommonSubexpressions.countReferences(root).size();
+	}
+
+	@Name("equationparser.Parse")
+	@Label("Expression Parse")
+	@Description("Parsing a expression into its typed tree")
+	@Category(CATEGORY)
+	static final class ParseEvent extends Event {
+
+		@Label("Expression Length")
+		int expressionLength;
+
+		@Label("Nodes")
+		int nodes;
+
+		@Label("Variables")
+		int variables;
+
+	}
+
+	@Name("equationparser.Minimize")
+	@Label("Expression Minimize")
+	@Description("Simplifying a expression with minimizeExpression")
+	@Category(CATEGORY)
+	static final class MinimizeEvent extends Event {
+
+		@Label("Nodes")
+		int nodes;
+
+		@Label("Minimized Nodes")
+		int minimizedNodes;
+
+		@Label("Variables")
+		int variables;
+
+	}
+
+	@Name("equationparser.Derivative")
+	@Label("Expression Derivative")
+	@Description("Differentiating a expression with findDerivative")
+	@Category(CATEGORY)
+	static final class DerivativeEvent extends Event {
+
+		@Label("Variable")
+		String variable;
+
+		@Label("Order")
+		int order;
+
+		@Label("Nodes")
+		int nodes;
+
+		@Label("Derivative Nodes")
+		int derivativeNodes;
+
+		@Label("Variables")
+		int variables;
+
+	}
+
+	@Name("equationparser.EvaluationBatch")
+	@Label("Expression Evaluation Batch")
+	@Description("Evaluating a expression for many rows at once")
+	@Category(CATEGORY)
+	static final class EvaluationBatchEvent extends Event {
+
+		@Label("Rows")
+		int rows;
+
+		@Label("Parallel")
+		boolean parallel;
+
+		@Label("Nodes")
+		int nodes;
+
+		@Label("Variables")
+		int variables;
+
+	}
+
+}
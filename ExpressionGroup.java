@@ -0,0 +1,82 @@
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+
+// A group of expressions compiled into one program that computes all of them for a row at once
+// The variables of all the expressions are merged by name into a single slot layout, in the order they are first found
+// Sub trees the expressions have in common are interned into the same nodes so they are computed once per row
+public final class ExpressionGroup {
+
+	private final Expression[] expressions;
+	private final String[] variables;
+	private final StackProgram program;
+
+	public ExpressionGroup(Expression... expressions) {
+		this.expressions = expressions.clone();
+		LinkedHashMap<String, Integer> slots = new LinkedHashMap<String, Integer>();
+		CommonSubexpressions nodes = new CommonSubexpressions();
+		EvalNode[] roots = new EvalNode[expressions.length];
+		for (int i = 0; i < expressions.length; i++) {
+			// Move the variables of the expression to their merged slots
+			EvalNode[] slotNodes = new EvalNode[expressions[i].getVariables().size()];
+			int slot = 0;
+			for (String variable : expressions[i].getVariables()) {
+				if (!slots.containsKey(variable))
+					slots.put(variable, slots.size());
+				slotNodes[slot++] = nodes.variable(slots.get(variable));
+			}
+			roots[i] = nodes.substitute(expressions[i].getEvaluationRoot(), slotNodes, new IdentityHashMap<EvalNode, EvalNode>());
+		}
+		this.variables = slots.keySet().toArray(new String[0]);
+		this.program = StackProgram.compile(roots);
+	}
+
+	// The merged variables, a variable's index in this array is its slot
+	public String[] getVariables() {
+		return variables.clone();
+	}
+
+	public Expression[] getExpressions() {
+		return expressions.clone();
+	}
+
+	// The number of results every row has, one per expression
+	public int size() {
+		return expressions.length;
+	}
+
+	// The program computing all the expressions
+	public StackProgram getProgram() {
+		return program;
+	}
+
+	// Creates a reusable stack for the single row evaluation below, a stack must not be shared between threads
+	public double[] newStack() {
+		return this.program.newStack();
+	}
+
+	// Evaluates every expression for a single row of values given in the order of getVariables()
+	// The result of expression i is written to outputs[i]
+	public void evaluate(double[] variableValues, double[] outputs) throws Exception {
+		this.evaluate(variableValues, outputs, this.program.newStack());
+	}
+
+	public void evaluate(double[] variableValues, double[] outputs, double[] stack) throws Exception {
+		this.checkSizes(variableValues.length, outputs.length);
+		this.program.evaluate(variableValues, stack, outputs);
+	}
+
+	// Evaluates every expression for rows offset to offset + length, one column per variable and one output column per expression
+	public void evaluate(double[][] variableColumns, double[][] outputs, int offset, int length) throws Exception {
+		this.checkSizes(variableColumns.length, outputs.length);
+		if (length > 0)
+			this.program.evaluate(variableColumns, outputs, offset, length);
+	}
+
+	private void checkSizes(int valueCount, int outputCount) throws Exception {
+		if (valueCount < this.variables.length)
+			throw new Exception("Missing values for variables!: expected " + this.variables.length + " values but got " + valueCount);
+		if (outputCount < this.expressions.length)
+			throw new Exception("Not enough outputs!: expected " + this.expressions.length + " outputs but got " + outputCount);
+	}
+
+}
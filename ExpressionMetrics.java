@@ -0,0 +1,61 @@
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts how many times a expression was evaluated and how long it took, for exporting to a metrics system
+// Counting is off by default, while it's off evaluating only pays for reading a single flag
+// Expressions only create their counters once something is counted, so uncounted expressions cost no memory either
+// The counters are LongAdders so threads evaluating the same expression don't fight over them
+public final class ExpressionMetrics {
+
+	private static volatile boolean enabled;
+
+	private final LongAdder evaluations = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder nanos = new LongAdder();
+
+	ExpressionMetrics() {
+	}
+
+	// Turns counting on or off for all expressions
+	public static void setEnabled(boolean enabled) {
+		ExpressionMetrics.enabled = enabled;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	// Records a single evaluation or a batch of rows evaluated together
+	void record(long rows, long elapsedNanos, boolean batch) {
+		this.evaluations.add(rows);
+		this.nanos.add(elapsedNanos);
+		if (batch)
+			this.batches.increment();
+	}
+
+	// The number of values evaluated, every row of a batch counts as one
+	public long getEvaluationCount() {
+		return this.evaluations.sum();
+	}
+
+	// The number of batch and parallel evaluations
+	public long getBatchCount() {
+		return this.batches.sum();
+	}
+
+	// The total time spent evaluating in nanoseconds
+	public long getEvaluationNanos() {
+		return this.nanos.sum();
+	}
+
+	public void reset() {
+		this.evaluations.reset();
+		this.batches.reset();
+		this.nanos.reset();
+	}
+
+	@Override
+	public String toString() {
+		return this.getEvaluationCount() + " evaluations in " + this.getBatchCount() + " batches, " + this.getEvaluationNanos() + " ns";
+	}
+
+}
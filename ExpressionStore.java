@@ -0,0 +1,240 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+// Keeps many expressions in a few flat columns outside the heap instead of as trees of objects
+// Every node is a opcode, a left and a right index, 10 bytes in total, and every constant adds 8 bytes to the constant column,
+// while a Node<String> costs a object, its references and a String of the formatted value, so a big catalog in a store
+// takes a fraction of the memory and gives the garbage collector nothing to walk
+// The nodes of a expression are stored one after another in postfix order with shared subexpressions kept once,
+// so evaluating is a single pass over its nodes, see evaluate
+// Adding expressions isn't thread safe, evaluating with a scratch array per thread is
+public final class ExpressionStore {
+
+	// The opcodes of leaves, the right index of a constant is its place in the constant column and of a variable its slot
+	private static final short CONSTANT = -1;
+	private static final short VARIABLE = -2;
+	private static final int INITIAL_CAPACITY = 1024;
+	// The scratch arrays reused by evaluate(int, double[]), one per thread and grown to fit the biggest expression it ran
+	// A array is taken out while in use, so a registered function that evaluates another expression gets a array of its own
+	private static final ThreadLocal<double[]> SCRATCH = new ThreadLocal<double[]>();
+
+	// The node columns, the left index of unary operators is -1
+	private ShortBuffer opcodes;
+	private IntBuffer lefts, rights;
+	private DoubleBuffer constants;
+	private int nodeCount, constantCount;
+
+	// Where the nodes of every expression start, the nodes of expression i end where expression i + 1 starts
+	private int[] starts = new int[INITIAL_CAPACITY + 1];
+	private int size;
+	// The variables of every expression, expressions with the same variables share the same array
+	private final ArrayList<String[]> variables = new ArrayList<String[]>();
+	private final HashMap<List<String>, String[]> sharedVariables = new HashMap<List<String>, String[]>();
+	// The most nodes in a single expression, the size of the scratch array evaluate needs
+	private int maxNodeCount;
+
+	public ExpressionStore() {
+		this(INITIAL_CAPACITY);
+	}
+
+	// Creates a store with room for the given number of nodes before its columns grow
+	public ExpressionStore(int nodeCapacity) {
+		int capacity = grownCapacity(0, Math.max(nodeCapacity, 1), 4);
+		this.opcodes = allocate(capacity * 2).asShortBuffer();
+		this.lefts = allocate(capacity * 4).asIntBuffer();
+		this.rights = allocate(capacity * 4).asIntBuffer();
+		// The constant column has a lower limit, past it the column grows when constants are added
+		this.constants = allocate(Math.min(capacity, Integer.MAX_VALUE / 8) * 8).asDoubleBuffer();
+	}
+
+	// Adds the typed tree of a expression and returns the index of the expression in the store
+	public int add(Expression expression) {
+		ArrayList<EvalNode> order = CommonSubexpressions.postfixOrder(expression.getEvaluationRoot());
+		IdentityHashMap<EvalNode, Integer> indices = new IdentityHashMap<EvalNode, Integer>();
+		this.ensureNodeCapacity(this.nodeCount + order.size());
+		int start = this.nodeCount;
+		for (EvalNode node : order) {
+			int index = this.nodeCount++;
+			indices.put(node, index);
+			if (node instanceof EvalNode.Constant) {
+				this.ensureConstantCapacity(this.constantCount + 1);
+				this.constants.put(this.constantCount, ((EvalNode.Constant) node).getValue());
+				this.putNode(index, CONSTANT, -1, this.constantCount++);
+			} else if (node instanceof EvalNode.Variable)
+				this.putNode(index, VARIABLE, -1, ((EvalNode.Variable) node).getSlot());
+			else {
+				EvalNode.Operator operator = (EvalNode.Operator) node;
+				int left = operator.getLeft() == null ? -1 : indices.get(operator.getLeft());
+				this.putNode(index, (short) operator.getOpcode(), left, indices.get(operator.getRight()));
+			}
+		}
+		if (this.size + 2 > this.starts.length)
+			this.starts = Arrays.copyOf(this.starts, this.starts.length * 2);
+		this.starts[this.size] = start;
+		this.starts[this.size + 1] = this.nodeCount;
+		this.variables.add(this.share(expression.getVariables()));
+		this.maxNodeCount = Math.max(this.maxNodeCount, order.size());
+		return this.size++;
+	}
+
+	// The number of expressions in the store
+	public int size() {
+		return this.size;
+	}
+
+	public int getNodeCount() {
+		return this.nodeCount;
+	}
+
+	public int getNodeCount(int expression) {
+		return this.starts[expression + 1] - this.starts[expression];
+	}
+
+	// The variables of a expression, in the order evaluate takes their values
+	public List<String> getVariables(int expression) {
+		return Arrays.asList(this.variables.get(expression));
+	}
+
+	// The length a scratch array needs to evaluate any expression in the store
+	public int getScratchSize() {
+		return this.maxNodeCount;
+	}
+
+	// The bytes the columns use outside the heap, not counting the room left for growing
+	public long getOffHeapBytes() {
+		return this.nodeCount * 10L + this.constantCount * 8L;
+	}
+
+	// Evaluates a expression of the store, the values of its variables are given in the same order as getVariables
+	// The scratch array is reused by the calls of the same thread
+	public double evaluate(int expression, double[] variableValues) throws Exception {
+		double[] scratch = SCRATCH.get();
+		if (scratch == null || scratch.length < this.maxNodeCount)
+			scratch = new double[this.maxNodeCount];
+		else
+			SCRATCH.set(null);
+		try {
+			return this.evaluate(expression, variableValues, scratch);
+		} finally {
+			SCRATCH.set(scratch);
+		}
+	}
+
+	// Evaluates a expression with the value of every node kept in the scratch array, which saves allocating it every time
+	// Each thread needs its own scratch array, one of getScratchSize values fits every expression of the store
+	public double evaluate(int expression, double[] variableValues, double[] scratch) throws Exception {
+		this.checkExpression(expression);
+		int variableCount = this.variables.get(expression).length;
+		if (variableValues.length < variableCount)
+			throw new Exception("Missing values for variables!: expected " + variableCount + " values but got " + variableValues.length);
+		ShortBuffer opcodes = this.opcodes;
+		IntBuffer lefts = this.lefts, rights = this.rights;
+		int start = this.starts[expression], end = this.starts[expression + 1];
+		for (int node = start; node < end; node++) {
+			int opcode = opcodes.get(node), right = rights.get(node);
+			double value;
+			if (opcode == CONSTANT)
+				value = this.constants.get(right);
+			else if (opcode == VARIABLE)
+				value = variableValues[right];
+			else {
+				int left = lefts.get(node);
+				double value1 = scratch[right - start];
+				value = left == -1 ? Operation.apply(opcode, value1, 0) : Operation.apply(opcode, scratch[left - start], value1);
+			}
+			scratch[node - start] = value;
+		}
+		return scratch[end - 1 - start];
+	}
+
+	// Rebuilds a expression of the store as a normal expression, for printing, minimizing or compiling it
+	public Expression get(int expression) throws Exception {
+		this.checkExpression(expression);
+		CommonSubexpressions nodes = new CommonSubexpressions();
+		int start = this.starts[expression], end = this.starts[expression + 1];
+		EvalNode[] built = new EvalNode[end - start];
+		for (int node = start; node < end; node++) {
+			int opcode = this.opcodes.get(node), left = this.lefts.get(node), right = this.rights.get(node);
+			if (opcode == CONSTANT)
+				built[node - start] = nodes.constant(this.constants.get(right));
+			else if (opcode == VARIABLE)
+				built[node - start] = nodes.variable(right);
+			else
+				built[node - start] = nodes.operator(opcode, left == -1 ? null : built[left - start], built[right - start]);
+		}
+		return new Expression(new LinkedHashSet<String>(Arrays.asList(this.variables.get(expression))), built[end - 1 - start]);
+	}
+
+	private void checkExpression(int expression) throws Exception {
+		if (expression < 0 || expression >= this.size)
+			throw new Exception("Unknown expression!: " + expression);
+	}
+
+	private void putNode(int index, short opcode, int left, int right) {
+		this.opcodes.put(index, opcode);
+		this.lefts.put(index, left);
+		this.rights.put(index, right);
+	}
+
+	// Most expressions of a catalog use the same few variables, so their names are kept once
+	private String[] share(LinkedHashSet<String> variables) {
+		List<String> key = new ArrayList<String>(variables);
+		String[] shared = this.sharedVariables.get(key);
+		if (shared == null) {
+			shared = key.toArray(new String[0]);
+			this.sharedVariables.put(key, shared);
+		}
+		return shared;
+	}
+
+	// Doubles the node columns until they fit the given number of nodes, copying them to new buffers
+	private void ensureNodeCapacity(int capacity) {
+		int current = this.opcodes.capacity();
+		if (capacity <= current)
+			return;
+		int grown = grownCapacity(current, capacity, 4);
+		ShortBuffer opcodes = allocate(grown * 2).asShortBuffer();
+		IntBuffer lefts = allocate(grown * 4).asIntBuffer(), rights = allocate(grown * 4).asIntBuffer();
+		this.opcodes.position(0).limit(this.nodeCount);
+		this.lefts.position(0).limit(this.nodeCount);
+		this.rights.position(0).limit(this.nodeCount);
+		opcodes.put(this.opcodes).clear();
+		lefts.put(this.lefts).clear();
+		rights.put(this.rights).clear();
+		this.opcodes = opcodes;
+		this.lefts = lefts;
+		this.rights = rights;
+	}
+
+	private void ensureConstantCapacity(int capacity) {
+		int current = this.constants.capacity();
+		if (capacity <= current)
+			return;
+		DoubleBuffer constants = allocate(grownCapacity(current, capacity, 8) * 8).asDoubleBuffer();
+		this.constants.position(0).limit(this.constantCount);
+		constants.put(this.constants).clear();
+		this.constants = constants;
+	}
+
+	// A buffer can't have more than Integer.MAX_VALUE bytes, which limits how many elements of a column fit in it
+	private static int grownCapacity(int current, int needed, int elementBytes) {
+		int limit = Integer.MAX_VALUE / elementBytes;
+		if (needed > limit)
+			throw new IllegalStateException("The store is full: " + needed + " elements don't fit in a column");
+		return (int) Math.min(Math.max((long) current * 2, needed), limit);
+	}
+
+	private static ByteBuffer allocate(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+}
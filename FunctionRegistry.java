@@ -0,0 +1,112 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The functions expressions can call on top of the built in ones
+// Every function gets the next opcode from Operation.FIRST_FUNCTION on and its name is added to the lexer,
+// so a call is resolved to its opcode once while parsing and evaluating it only indexes a table, without looking up the name
+// Functions are added for the whole program and can't be removed, expressions parsed before a function was added don't see it
+public final class FunctionRegistry {
+
+	// The functions indexed by their opcode minus Operation.FIRST_FUNCTION
+	// Adding a function replaces the table with a longer copy so evaluating never needs a lock
+	private static volatile CustomFunction[] functions = new CustomFunction[0];
+	private static final ConcurrentHashMap<String, Integer> opcodes = new ConcurrentHashMap<String, Integer>();
+
+	private FunctionRegistry() {
+	}
+
+	// Adds a function and returns its opcode
+	public static int register(CustomFunction function) throws Exception {
+		return register(function, 0);
+	}
+
+	// Adds a pure function with a cache of at most cacheSize results, worth it for functions that are slow to compute
+	// A cache size of 0 adds the function without a cache
+	public static synchronized int register(CustomFunction function, int cacheSize) throws Exception {
+		String name = function.getName();
+		if (name == null || name.isEmpty())
+			throw new Exception("Invalid function name!: " + name);
+		for (int i = 0; i < name.length(); i++)
+			if (name.charAt(i) < 'a' || name.charAt(i) > 'z')
+				throw new Exception("Invalid function name!: " + name);
+		if (Operation.fromToken(name) != -1 || name.equals("pi") || name.equals("e"))
+			throw new Exception("Function already exists!: " + name);
+		if (function.getArity() != 1 && function.getArity() != 2)
+			throw new Exception("Functions can only take one or two values!: " + name);
+		if (cacheSize < 0 || (cacheSize > 0 && !function.isPure()))
+			throw new Exception("Only pure functions can be cached!: " + name);
+		int opcode = Operation.FIRST_FUNCTION + functions.length;
+		CustomFunction[] added = Arrays.copyOf(functions, functions.length + 1);
+		added[functions.length] = cacheSize > 0 ? new CachedFunction(function, cacheSize) : function;
+		functions = added;
+		opcodes.put(name, opcode);
+		Lexer.addFunction(name, opcode);
+		return opcode;
+	}
+
+	// Returns the opcode of a function name or -1 if there's no such function
+	public static int opcodeOf(String name) {
+		Integer opcode = opcodes.get(name);
+		return opcode == null ? -1 : opcode;
+	}
+
+	// Returns the function of a opcode, with its cache if it has one
+	public static CustomFunction get(int opcode) {
+		CustomFunction[] functions = FunctionRegistry.functions;
+		if (opcode < Operation.FIRST_FUNCTION || opcode - Operation.FIRST_FUNCTION >= functions.length)
+			throw new IllegalArgumentException("Unknown opcode: " + opcode);
+		return functions[opcode - Operation.FIRST_FUNCTION];
+	}
+
+	// The number of functions added so far
+	public static int size() {
+		return functions.length;
+	}
+
+	// Called by the compiled expressions, which push the opcode after the values
+	static double call(double value, double value1, int opcode) {
+		return get(opcode).apply(value, value1);
+	}
+
+	// A cache in front of a pure function where every pair of values has a single place, picked by their hash
+	// Entries are never changed, a new result replaces the whole entry so threads racing on a place only lose a result
+	private static final class CachedFunction extends CustomFunction {
+
+		private final CustomFunction function;
+		private final Entry[] entries;
+
+		private CachedFunction(CustomFunction function, int size) {
+			super(function.getName(), function.getArity(), true);
+			this.function = function;
+			this.entries = new Entry[size];
+		}
+
+		@Override
+		public double apply(double value, double value1) {
+			long bits = Double.doubleToLongBits(value), bits1 = Double.doubleToLongBits(value1);
+			long hash = bits * 31 + bits1;
+			int index = (int) (((hash ^ (hash >>> 32)) & 0x7fffffff) % this.entries.length);
+			Entry entry = this.entries[index];
+			if (entry != null && entry.bits == bits && entry.bits1 == bits1)
+				return entry.result;
+			double result = this.function.apply(value, value1);
+			this.entries[index] = new Entry(bits, bits1, result);
+			return result;
+		}
+
+	}
+
+	private static final class Entry {
+
+		private final long bits, bits1;
+		private final double result;
+
+		private Entry(long bits, long bits1, double result) {
+			this.bits = bits;
+			this.bits1 = bits1;
+			this.result = result;
+		}
+
+	}
+
+}
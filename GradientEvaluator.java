@@ -0,0 +1,226 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+// Computes the value of a expression and its gradient by every variable in a single evaluation, without building derivative expressions
+// Every operator knows the derivatives of its result by its operands at the values it got, the chain rule combines them:
+// - evaluateForward carries the derivatives of every node by all the variables up the tree, its cost grows with the variable count
+// - evaluateReverse computes the values first and then the derivatives of the root by every node back down the tree,
+//   its cost doesn't depend on the variable count so it's the better choice for many variables
+// Registered functions have no derivatives, so like findGradient a expression calling one on its variables can't get a evaluator
+// The evaluator keeps working arrays between evaluations, so every thread needs its own evaluator
+public final class GradientEvaluator {
+
+	private static final int LEAF = -1;
+
+	private final int variableCount;
+	// The nodes in postfix order so every node comes after its operands, the root is the last node
+	private final int[] opcodes, lefts, rights, slots;
+	private final double[] nodeValues;
+	// The derivatives of every operator by its left and right operand at the last values
+	private final double[] leftPartials, rightPartials;
+	// The derivatives of every node by every variable for forward mode, variableCount values per node
+	private double[] tangents;
+	// The derivatives of the root by every node for reverse mode
+	private final double[] adjoints;
+
+	public GradientEvaluator(Expression expression) {
+		this.variableCount = expression.getVariables().size();
+		IdentityHashMap<EvalNode, Integer> indices = new IdentityHashMap<EvalNode, Integer>();
+		ArrayList<EvalNode> order = CommonSubexpressions.postfixOrderWithIndices(expression.getEvaluationRoot(), indices);
+		int size = order.size();
+		this.opcodes = new int[size];
+		this.lefts = new int[size];
+		this.rights = new int[size];
+		this.slots = new int[size];
+		this.nodeValues = new double[size];
+		this.leftPartials = new double[size];
+		this.rightPartials = new double[size];
+		this.adjoints = new double[size];
+		Arrays.fill(this.slots, -1);
+		// Whether every node depends on some variable
+		boolean[] variable = new boolean[size];
+		for (int i = 0; i < size; i++) {
+			EvalNode node = order.get(i);
+			this.opcodes[i] = LEAF;
+			if (node instanceof EvalNode.Constant)
+				this.nodeValues[i] = ((EvalNode.Constant) node).getValue();
+			else if (node instanceof EvalNode.Variable) {
+				this.slots[i] = ((EvalNode.Variable) node).getSlot();
+				variable[i] = true;
+			} else {
+				EvalNode.Operator operator = (EvalNode.Operator) node;
+				this.opcodes[i] = operator.getOpcode();
+				this.lefts[i] = operator.getLeft() == null ? -1 : indices.get(operator.getLeft());
+				this.rights[i] = indices.get(operator.getRight());
+				variable[i] = variable[this.rights[i]] || (this.lefts[i] != -1 && variable[this.lefts[i]]);
+				if (variable[i] && operator.getOpcode() >= Operation.FIRST_FUNCTION)
+					throw new IllegalArgumentException("No derivative for function: " + Operation.symbol(operator.getOpcode()));
+			}
+		}
+	}
+
+	public int getVariableCount() {
+		return this.variableCount;
+	}
+
+	// Forward mode, returns the value and writes the derivative by every variable to the gradient in slot order
+	public double evaluateForward(double[] variableValues, double[] gradient) throws Exception {
+		this.checkSizes(variableValues.length, gradient.length);
+		int n = this.variableCount, size = this.opcodes.length;
+		if (this.tangents == null)
+			this.tangents = new double[size * n];
+		double[] tangents = this.tangents;
+		for (int node = 0; node < size; node++) {
+			int start = node * n;
+			if (this.opcodes[node] == LEAF) {
+				Arrays.fill(tangents, start, start + n, 0);
+				if (this.slots[node] != -1) {
+					this.nodeValues[node] = variableValues[this.slots[node]];
+					tangents[start + this.slots[node]] = 1;
+				}
+				continue;
+			}
+			this.computeNode(node);
+			int right = this.rights[node] * n;
+			double rightPartial = this.rightPartials[node];
+			if (this.lefts[node] == -1)
+				for (int i = 0; i < n; i++)
+					tangents[start + i] = term(rightPartial, tangents[right + i]);
+			else {
+				int left = this.lefts[node] * n;
+				double leftPartial = this.leftPartials[node];
+				for (int i = 0; i < n; i++)
+					tangents[start + i] = term(leftPartial, tangents[left + i]) + term(rightPartial, tangents[right + i]);
+			}
+		}
+		System.arraycopy(tangents, (size - 1) * n, gradient, 0, n);
+		return this.nodeValues[size - 1];
+	}
+
+	// A operand that doesn't depend on the variable adds nothing, even where its partial is infinite like sqrt at 0
+	// Reverse mode skips the zero adjoints the same way, so both modes give the same gradient
+	private static double term(double partial, double tangent) {
+		return tangent == 0 ? 0 : partial * tangent;
+	}
+
+	// Reverse mode, returns the value and writes the derivative by every variable to the gradient in slot order
+	public double evaluateReverse(double[] variableValues, double[] gradient) throws Exception {
+		this.checkSizes(variableValues.length, gradient.length);
+		int size = this.opcodes.length;
+		for (int node = 0; node < size; node++) {
+			if (this.opcodes[node] == LEAF) {
+				if (this.slots[node] != -1)
+					this.nodeValues[node] = variableValues[this.slots[node]];
+			} else
+				this.computeNode(node);
+		}
+		double[] adjoints = this.adjoints;
+		Arrays.fill(adjoints, 0);
+		adjoints[size - 1] = 1;
+		Arrays.fill(gradient, 0, this.variableCount, 0);
+		// Every node comes after its operands, so going backwards a node's adjoint is complete before it's passed on
+		for (int node = size - 1; node >= 0; node--) {
+			double adjoint = adjoints[node];
+			if (this.opcodes[node] == LEAF) {
+				if (this.slots[node] != -1)
+					gradient[this.slots[node]] += adjoint;
+				continue;
+			}
+			// Skipping zero adjoints also keeps the infinite partials of unused branches out of the gradient
+			if (adjoint == 0)
+				continue;
+			if (this.lefts[node] != -1)
+				adjoints[this.lefts[node]] += adjoint * this.leftPartials[node];
+			adjoints[this.rights[node]] += adjoint * this.rightPartials[node];
+		}
+		return this.nodeValues[size - 1];
+	}
+
+	// Computes the value of a operator node and its derivatives by its operands
+	private void computeNode(int node) {
+		int opcode = this.opcodes[node];
+		double b = this.nodeValues[this.rights[node]];
+		double a = this.lefts[node] == -1 ? 0 : this.nodeValues[this.lefts[node]];
+		double result = Operation.isUnary(opcode) ? Operation.apply(opcode, b, 0) : Operation.apply(opcode, a, b);
+		double leftPartial = 0, rightPartial;
+		switch (opcode) {
+		case Operation.ADD:
+			leftPartial = 1;
+			rightPartial = 1;
+			break;
+		case Operation.SUB:
+			leftPartial = 1;
+			rightPartial = -1;
+			break;
+		case Operation.MUL:
+			leftPartial = b;
+			rightPartial = a;
+			break;
+		case Operation.DIV:
+			leftPartial = 1 / b;
+			rightPartial = -result / b;
+			break;
+		case Operation.POW:
+			leftPartial = b == 0 ? 0 : b * Math.pow(a, b - 1);
+			// The exponent only has a derivative for positive bases, like with a constant exponent it's left out otherwise
+			rightPartial = a > 0 ? result * Math.log(a) : 0;
+			break;
+		case Operation.SQRT:
+			rightPartial = 1 / (2 * result);
+			break;
+		case Operation.SIN:
+			rightPartial = Math.cos(b);
+			break;
+		case Operation.COS:
+			rightPartial = -Math.sin(b);
+			break;
+		case Operation.TAN:
+			rightPartial = 1 + result * result;
+			break;
+		case Operation.ASIN:
+			rightPartial = 1 / Math.sqrt(1 - b * b);
+			break;
+		case Operation.ACOS:
+			rightPartial = -1 / Math.sqrt(1 - b * b);
+			break;
+		case Operation.ATAN:
+			rightPartial = 1 / (1 + b * b);
+			break;
+		case Operation.LN:
+			rightPartial = 1 / b;
+			break;
+		case Operation.LOG: {
+			// log of a in base b is ln a / ln b
+			double lnB = Math.log(b);
+			leftPartial = 1 / (a * lnB);
+			rightPartial = -result / (b * lnB);
+			break;
+		}
+		case Operation.MAX:
+			// Where both are equal the left operand is picked
+			leftPartial = a >= b ? 1 : 0;
+			rightPartial = 1 - leftPartial;
+			break;
+		case Operation.MIN:
+			leftPartial = a <= b ? 1 : 0;
+			rightPartial = 1 - leftPartial;
+			break;
+		default:
+			// Registered functions are only called on constants here, see the constructor
+			leftPartial = 0;
+			rightPartial = 0;
+		}
+		this.nodeValues[node] = result;
+		this.leftPartials[node] = leftPartial;
+		this.rightPartials[node] = rightPartial;
+	}
+
+	private void checkSizes(int valueCount, int gradientLength) throws Exception {
+		if (valueCount < this.variableCount)
+			throw new Exception("Missing values for variables!: expected " + this.variableCount + " values but got " + valueCount);
+		if (gradientLength < this.variableCount)
+			throw new Exception("The gradient is too short!: expected " + this.variableCount + " values but got " + gradientLength);
+	}
+
+}
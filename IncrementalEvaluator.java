@@ -0,0 +1,222 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+// Evaluates a expression again and again while only some of its variables change between evaluations
+// The value of every node is kept from the last evaluation, and every variable knows which nodes depend on it
+// After values change only the nodes on the paths from the changed variables to the root are computed again
+// The results are the same as evaluating the whole expression since the same operations run on the same values
+public final class IncrementalEvaluator {
+
+	private static final int LEAF = -1;
+
+	// The values of the variables, set through this evaluator so it knows what changed
+	private final Bindings bindings;
+	// The nodes in postfix order so every node comes after its operands, the root is the last node
+	private final int[] opcodes, lefts, rights;
+	private final double[] nodeValues;
+	// The node of every variable slot or -1 if the variable isn't used, and the operators depending on it in postfix order
+	private final int[] variableNodes;
+	private final int[][] dependents;
+
+	// The variables set since the last evaluation
+	private final boolean[] changed;
+	private final int[] changedSlots;
+	private int changedCount;
+	// Marks the nodes already queued for recomputing, a new stamp is used for every evaluation, see nextStamp
+	private final int[] stamps;
+	private int stamp;
+	private final int[] dirtyNodes;
+	private int lastRecomputedCount;
+	private boolean evaluated;
+
+	public IncrementalEvaluator(Expression expression) {
+		this.bindings = expression.newBindings();
+		int variableCount = this.bindings.size();
+		IdentityHashMap<EvalNode, Integer> indices = new IdentityHashMap<EvalNode, Integer>();
+		ArrayList<EvalNode> order = CommonSubexpressions.postfixOrderWithIndices(expression.getEvaluationRoot(), indices);
+		int size = order.size();
+		this.opcodes = new int[size];
+		this.lefts = new int[size];
+		this.rights = new int[size];
+		this.nodeValues = new double[size];
+		this.variableNodes = new int[variableCount];
+		Arrays.fill(this.variableNodes, -1);
+		// The operators using every node, used to find everything depending on a variable
+		int[] parentCounts = new int[size];
+		for (int i = 0; i < size; i++) {
+			EvalNode node = order.get(i);
+			this.opcodes[i] = LEAF;
+			if (node instanceof EvalNode.Constant)
+				this.nodeValues[i] = ((EvalNode.Constant) node).getValue();
+			else if (node instanceof EvalNode.Variable)
+				this.variableNodes[((EvalNode.Variable) node).getSlot()] = i;
+			else {
+				EvalNode.Operator operator = (EvalNode.Operator) node;
+				this.opcodes[i] = operator.getOpcode();
+				this.lefts[i] = operator.getLeft() == null ? -1 : indices.get(operator.getLeft());
+				this.rights[i] = indices.get(operator.getRight());
+				if (this.lefts[i] != -1)
+					parentCounts[this.lefts[i]]++;
+				if (this.rights[i] != this.lefts[i])
+					parentCounts[this.rights[i]]++;
+			}
+		}
+		int[][] parents = new int[size][];
+		for (int i = 0; i < size; i++)
+			parents[i] = new int[parentCounts[i]];
+		Arrays.fill(parentCounts, 0);
+		for (int i = 0; i < size; i++)
+			if (this.opcodes[i] != LEAF) {
+				if (this.lefts[i] != -1)
+					parents[this.lefts[i]][parentCounts[this.lefts[i]]++] = i;
+				if (this.rights[i] != this.lefts[i])
+					parents[this.rights[i]][parentCounts[this.rights[i]]++] = i;
+			}
+		this.stamps = new int[size];
+		this.dependents = new int[variableCount][];
+		for (int slot = 0; slot < variableCount; slot++)
+			this.dependents[slot] = this.variableNodes[slot] == -1 ? new int[0] : this.ancestors(this.variableNodes[slot], parents);
+		this.dirtyNodes = new int[size];
+		this.changed = new boolean[variableCount];
+		this.changedSlots = new int[variableCount];
+	}
+
+	// Finds every node above the given node and returns them sorted, so in postfix order
+	private int[] ancestors(int node, int[][] parents) {
+		int stamp = this.nextStamp();
+		int[] found = new int[parents.length];
+		int count = 0, next = 0;
+		found[count++] = node;
+		while (next < count)
+			for (int parent : parents[found[next++]])
+				if (this.stamps[parent] != stamp) {
+					this.stamps[parent] = stamp;
+					found[count++] = parent;
+				}
+		// Leave the variable node itself out
+		int[] ancestors = Arrays.copyOfRange(found, 1, count);
+		Arrays.sort(ancestors);
+		return ancestors;
+	}
+
+	// A new stamp, when the counter wraps around the old stamps are cleared so none of them matches a new one by chance
+	private int nextStamp() {
+		if (++this.stamp == 0) {
+			Arrays.fill(this.stamps, 0);
+			this.stamp = 1;
+		}
+		return this.stamp;
+	}
+
+	// Returns the slot of a variable or -1 if the expression doesn't have it
+	public int slotOf(String name) {
+		return this.bindings.slotOf(name);
+	}
+
+	public int size() {
+		return this.bindings.size();
+	}
+
+	public String getName(int slot) {
+		return this.bindings.getName(slot);
+	}
+
+	public double get(int slot) {
+		return this.bindings.get(slot);
+	}
+
+	// Setting a variable to the value it already has doesn't make anything dirty
+	public IncrementalEvaluator set(int slot, double value) {
+		if (this.bindings.isBound(slot) && Double.doubleToLongBits(this.bindings.get(slot)) == Double.doubleToLongBits(value))
+			return this;
+		this.bindings.set(slot, value);
+		if (!this.changed[slot]) {
+			this.changed[slot] = true;
+			this.changedSlots[this.changedCount++] = slot;
+		}
+		return this;
+	}
+
+	// Sets a value by name, looking the name up every time so prefer set(int, double) on hot paths
+	public IncrementalEvaluator set(String name, double value) throws Exception {
+		return this.set(this.bindings.requireSlot(name), value);
+	}
+
+	// Sets every variable, the values are given in the order the variables were discovered
+	public IncrementalEvaluator setAll(double[] variableValues) {
+		for (int slot = 0; slot < Math.min(variableValues.length, this.bindings.size()); slot++)
+			this.set(slot, variableValues[slot]);
+		return this;
+	}
+
+	// Returns the value of the expression with the current values, computing only what changed since the last call
+	public double evaluate() throws Exception {
+		this.bindings.checkComplete();
+		int root = this.opcodes.length - 1;
+		if (!this.evaluated) {
+			// The first evaluation computes everything
+			for (int slot = 0; slot < this.bindings.size(); slot++)
+				this.copyVariable(slot);
+			for (int node = 0; node <= root; node++)
+				this.compute(node);
+			this.lastRecomputedCount = root + 1;
+			this.evaluated = true;
+		} else if (this.changedCount == 1) {
+			// A single change, its dependents are already in order
+			int slot = this.changedSlots[0];
+			this.copyVariable(slot);
+			for (int node : this.dependents[slot])
+				this.compute(node);
+			this.lastRecomputedCount = this.dependents[slot].length;
+		} else if (this.changedCount > 1) {
+			// Merge the dependents of every change, each node once, and sort them back into postfix order
+			int stamp = this.nextStamp(), count = 0;
+			for (int i = 0; i < this.changedCount; i++) {
+				int slot = this.changedSlots[i];
+				this.copyVariable(slot);
+				for (int node : this.dependents[slot])
+					if (this.stamps[node] != stamp) {
+						this.stamps[node] = stamp;
+						this.dirtyNodes[count++] = node;
+					}
+			}
+			Arrays.sort(this.dirtyNodes, 0, count);
+			for (int i = 0; i < count; i++)
+				this.compute(this.dirtyNodes[i]);
+			this.lastRecomputedCount = count;
+		} else
+			this.lastRecomputedCount = 0;
+		for (int i = 0; i < this.changedCount; i++)
+			this.changed[this.changedSlots[i]] = false;
+		this.changedCount = 0;
+		return this.nodeValues[root];
+	}
+
+	// How many nodes the last evaluation computed
+	public int getLastRecomputedCount() {
+		return this.lastRecomputedCount;
+	}
+
+	// The number of nodes in the expression
+	public int getNodeCount() {
+		return this.opcodes.length;
+	}
+
+	private void copyVariable(int slot) {
+		if (this.variableNodes[slot] != -1)
+			this.nodeValues[this.variableNodes[slot]] = this.bindings.get(slot);
+	}
+
+	private void compute(int node) {
+		int opcode = this.opcodes[node];
+		if (opcode == LEAF)
+			return;
+		double[] nodeValues = this.nodeValues;
+		if (Operation.isUnary(opcode))
+			nodeValues[node] = Operation.apply(opcode, nodeValues[this.rights[node]], 0);
+		else
+			nodeValues[node] = Operation.apply(opcode, nodeValues[this.lefts[node]], nodeValues[this.rights[node]]);
+	}
+
+}
@@ -0,0 +1,33 @@
+// The result of a numerical integration
+public final class IntegrationResult {
+
+	private final double value;
+	private final double errorEstimate;
+	private final long evaluationCount;
+
+	public IntegrationResult(double value, double errorEstimate, long evaluationCount) {
+		this.value = value;
+		this.errorEstimate = errorEstimate;
+		this.evaluationCount = evaluationCount;
+	}
+
+	public double getValue() {
+		return value;
+	}
+
+	// An estimate of the absolute error of the value
+	public double getErrorEstimate() {
+		return errorEstimate;
+	}
+
+	// How many times the expression was evaluated
+	public long getEvaluationCount() {
+		return evaluationCount;
+	}
+
+	@Override
+	public String toString() {
+		return this.value + " (error " + this.errorEstimate + ", " + this.evaluationCount + " evaluations)";
+	}
+
+}
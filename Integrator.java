@@ -0,0 +1,189 @@
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Adaptive numerical integration of single variable expressions
+// The expression is compiled once and evaluated on primitive doubles, and the intervals are only split where the error is big
+public final class Integrator {
+
+	// How many times adaptive Simpson may split a interval before accepting it
+	private static final int MAX_SIMPSON_DEPTH = 50;
+	// How many intervals Gauss-Kronrod may split each range into
+	private static final int MAX_KRONROD_SEGMENTS = 2000;
+
+	// The 15 point Kronrod nodes on [-1, 1], only the non negative half since they are symmetric
+	// The odd indices are also the nodes of the 7 point Gauss rule
+	private static final double[] KRONROD_NODES = { 0.991455371120812639206854697526329, 0.949107912342758524526189684047851,
+			0.864864423359769072789712788640926, 0.741531185599394439863864773280788, 0.586087235467691130294144845693013,
+			0.405845151377397166906606412076961, 0.207784955007898467600689403773245, 0.000000000000000000000000000000000 };
+	private static final double[] KRONROD_WEIGHTS = { 0.022935322010529224963732008058970, 0.063092092629978553290700663189204,
+			0.104790010322250183839876322541518, 0.140653259715525918745189590510238, 0.169004726639267902826583426598550,
+			0.190350578064785409913256402421014, 0.204432940075298892414161999234649, 0.209482141084727828012999174891714 };
+	private static final double[] GAUSS_WEIGHTS = { 0.129484966168869693270611432679082, 0.279705391489276667901467771423780,
+			0.381830050505118944950369775488975, 0.417959183673469387755102040816327 };
+
+	private Integrator() {
+	}
+
+	// Integrates from start to end with adaptive Simpson until the error estimate is below the tolerance
+	public static IntegrationResult simpson(Expression expression, double start, double end, double tolerance) throws Exception {
+		Function function = new Function(expression);
+		double middle = (start + end) / 2;
+		double fStart = function.at(start), fMiddle = function.at(middle), fEnd = function.at(end);
+		double whole = (end - start) / 6 * (fStart + 4 * fMiddle + fEnd);
+		double[] error = new double[1];
+		double value = simpson(function, start, end, fStart, fMiddle, fEnd, whole, tolerance, MAX_SIMPSON_DEPTH, error);
+		return new IntegrationResult(value, error[0], function.evaluations);
+	}
+
+	// Integrates from start to end with adaptive 15 point Gauss-Kronrod until the error estimate is below the tolerance
+	public static IntegrationResult gaussKronrod(Expression expression, double start, double end, double tolerance) throws Exception {
+		return gaussKronrod(new Function(expression), start, end, tolerance);
+	}
+
+	// Splits the range into pieces and integrates each of them on the pool with its share of the tolerance
+	public static IntegrationResult gaussKronrod(Expression expression, double start, double end, double tolerance, ForkJoinPool pool, int pieces) throws Exception {
+		if (pieces < 1)
+			throw new Exception("The number of pieces must be positive!: " + pieces);
+		return pool.invoke(new KronrodTask(Function.checkSingleVariable(expression).compile(), start, end, tolerance, pieces));
+	}
+
+	private static double simpson(Function function, double start, double end, double fStart, double fMiddle, double fEnd, double whole, double tolerance, int depth, double[] error) {
+		double middle = (start + end) / 2;
+		double leftMiddle = (start + middle) / 2, rightMiddle = (middle + end) / 2;
+		double fLeftMiddle = function.at(leftMiddle), fRightMiddle = function.at(rightMiddle);
+		double left = (middle - start) / 6 * (fStart + 4 * fLeftMiddle + fMiddle);
+		double right = (end - middle) / 6 * (fMiddle + 4 * fRightMiddle + fEnd);
+		double difference = left + right - whole;
+		// Richardson extrapolation, the difference is 15 times the error of the halves
+		if (depth <= 0 || Math.abs(difference) <= 15 * tolerance || !(Math.abs(difference) < Double.POSITIVE_INFINITY)) {
+			error[0] += Math.abs(difference) / 15;
+			return left + right + difference / 15;
+		}
+		return simpson(function, start, middle, fStart, fLeftMiddle, fMiddle, left, tolerance / 2, depth - 1, error)
+				+ simpson(function, middle, end, fMiddle, fRightMiddle, fEnd, right, tolerance / 2, depth - 1, error);
+	}
+
+	// Keeps splitting the interval with the biggest error until the total error is small enough
+	private static IntegrationResult gaussKronrod(Function function, double start, double end, double tolerance) {
+		PriorityQueue<Segment> segments = new PriorityQueue<Segment>();
+		Segment first = kronrod(function, start, end);
+		segments.add(first);
+		double value = first.value, error = first.error;
+		while (error > tolerance && segments.size() < MAX_KRONROD_SEGMENTS) {
+			Segment worst = segments.poll();
+			double middle = (worst.start + worst.end) / 2;
+			Segment left = kronrod(function, worst.start, middle), right = kronrod(function, middle, worst.end);
+			value += left.value + right.value - worst.value;
+			error += left.error + right.error - worst.error;
+			segments.add(left);
+			segments.add(right);
+		}
+		// Sum the segments again so the rounding errors of the updates above don't add up
+		value = 0;
+		error = 0;
+		for (Segment segment : segments) {
+			value += segment.value;
+			error += segment.error;
+		}
+		return new IntegrationResult(value, error, function.evaluations);
+	}
+
+	// Applies the 15 point Kronrod rule and the 7 point Gauss rule it contains, their difference estimates the error
+	private static Segment kronrod(Function function, double start, double end) {
+		double center = (start + end) / 2, halfLength = (end - start) / 2;
+		double fCenter = function.at(center);
+		double kronrod = fCenter * KRONROD_WEIGHTS[7], gauss = fCenter * GAUSS_WEIGHTS[3];
+		for (int i = 0; i < 7; i++) {
+			double offset = halfLength * KRONROD_NODES[i];
+			double pair = function.at(center - offset) + function.at(center + offset);
+			kronrod += KRONROD_WEIGHTS[i] * pair;
+			if (i % 2 == 1)
+				gauss += GAUSS_WEIGHTS[i / 2] * pair;
+		}
+		return new Segment(start, end, kronrod * halfLength, Math.abs((kronrod - gauss) * halfLength));
+	}
+
+	// A single variable expression evaluated through its compiled form
+	private static final class Function {
+
+		private final CompiledExpression compiled;
+		private final double[] values = new double[1];
+		private long evaluations;
+
+		private Function(Expression expression) throws Exception {
+			this(checkSingleVariable(expression).compile());
+		}
+
+		private Function(CompiledExpression compiled) {
+			this.compiled = compiled;
+		}
+
+		private double at(double x) {
+			this.evaluations++;
+			this.values[0] = x;
+			return this.compiled.apply(this.values);
+		}
+
+		private static Expression checkSingleVariable(Expression expression) throws Exception {
+			if (expression.getVariables().size() > 1)
+				throw new Exception("This method only works for single variable expresisons!");
+			return expression;
+		}
+
+	}
+
+	// A interval with its integral and error estimate, ordered so the biggest error comes first
+	private static final class Segment implements Comparable<Segment> {
+
+		private final double start, end, value, error;
+
+		private Segment(double start, double end, double value, double error) {
+			this.start = start;
+			this.end = end;
+			this.value = value;
+			this.error = error;
+		}
+
+		@Override
+		public int compareTo(Segment other) {
+			return Double.compare(other.error, this.error);
+		}
+
+	}
+
+	// Integrates a piece of the range, splitting it in half until only one piece is left
+	private static final class KronrodTask extends RecursiveTask<IntegrationResult> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final CompiledExpression compiled;
+		private final double start, end, tolerance;
+		private final int pieces;
+
+		private KronrodTask(CompiledExpression compiled, double start, double end, double tolerance, int pieces) {
+			this.compiled = compiled;
+			this.start = start;
+			this.end = end;
+			this.tolerance = tolerance;
+			this.pieces = pieces;
+		}
+
+		@Override
+		protected IntegrationResult compute() {
+			if (this.pieces == 1)
+				return gaussKronrod(new Function(this.compiled), this.start, this.end, this.tolerance);
+			// Each half gets the share of the tolerance matching its share of the pieces
+			int leftPieces = this.pieces / 2;
+			double middle = this.start + (this.end - this.start) * leftPieces / this.pieces;
+			KronrodTask left = new KronrodTask(this.compiled, this.start, middle, this.tolerance * leftPieces / this.pieces, leftPieces);
+			KronrodTask right = new KronrodTask(this.compiled, middle, this.end, this.tolerance * (this.pieces - leftPieces) / this.pieces, this.pieces - leftPieces);
+			left.fork();
+			IntegrationResult rightResult = right.compute(), leftResult = left.join();
+			return new IntegrationResult(leftResult.getValue() + rightResult.getValue(), leftResult.getErrorEstimate() + rightResult.getErrorEstimate(),
+					leftResult.getEvaluationCount() + rightResult.getEvaluationCount());
+		}
+
+	}
+
+}
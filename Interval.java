@@ -0,0 +1,45 @@
+// The bounds of the values a expression takes over ranges of its variables
+// Every value the expression evaluates to in the ranges is between the low and the high bound,
+// points where it evaluates to NaN, like sqrt of a negative number, are left out and only mark the interval as possibly undefined
+// An empty interval means the expression is NaN everywhere in the ranges, its bounds are NaN
+public final class Interval {
+
+	private final double low, high;
+	private final boolean possiblyUndefined;
+
+	public Interval(double low, double high, boolean possiblyUndefined) {
+		this.low = low;
+		this.high = high;
+		this.possiblyUndefined = possiblyUndefined;
+	}
+
+	public double getLow() {
+		return low;
+	}
+
+	public double getHigh() {
+		return high;
+	}
+
+	// Whether the expression may be NaN somewhere in the ranges
+	public boolean isPossiblyUndefined() {
+		return possiblyUndefined;
+	}
+
+	public boolean isEmpty() {
+		return Double.isNaN(this.low);
+	}
+
+	// Checks if the expression may take the value somewhere in the ranges, if not it surely doesn't
+	public boolean contains(double value) {
+		return !this.isEmpty() && this.low <= value && value <= this.high;
+	}
+
+	@Override
+	public String toString() {
+		if (this.isEmpty())
+			return "[]";
+		return "[" + this.low + ", " + this.high + "]" + (this.possiblyUndefined ? " (possibly undefined)" : "");
+	}
+
+}
@@ -0,0 +1,267 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+// Evaluates a expression over ranges of its variables and bounds every value it takes there, see Interval
+// Each operator bounds its result from the bounds of its operands:
+// - monotonic operators and functions are computed at the ends of the ranges with the same floating point operations
+//   as a normal evaluation, those are monotonic too so the bounds hold for every value a normal evaluation gives
+// - sin, cos and tan look for their peaks and poles in the range, with some slack so they are never missed
+// - sqrt, ln, log, asin, acos and pow are cut to the part of the range where they are defined,
+//   and the result is marked as possibly undefined when a part had to be cut
+// The bounds are never too tight but they can be loose, more so for wide ranges and variables used several times
+// The evaluator keeps working arrays between evaluations, so every thread needs its own evaluator
+public final class IntervalEvaluator {
+
+	private static final int LEAF = -1;
+	private static final double TWO_PI = 2 * Math.PI;
+	// Past this the peaks of sin are only a few doubles apart so they aren't looked for
+	private static final double MAX_PERIODIC_ARGUMENT = 1e15;
+
+	private final int variableCount;
+	// The nodes in postfix order so every node comes after its operands, the root is the last node
+	private final int[] opcodes, lefts, rights, slots;
+	// The bounds of every node at the last ranges, NaN bounds for nodes that are NaN everywhere
+	private final double[] lows, highs;
+	private final boolean[] undefined;
+
+	public IntervalEvaluator(Expression expression) {
+		this.variableCount = expression.getVariables().size();
+		ArrayList<EvalNode> order = CommonSubexpressions.postfixOrder(expression.getEvaluationRoot());
+		IdentityHashMap<EvalNode, Integer> indices = new IdentityHashMap<EvalNode, Integer>();
+		int size = order.size();
+		this.opcodes = new int[size];
+		this.lefts = new int[size];
+		this.rights = new int[size];
+		this.slots = new int[size];
+		this.lows = new double[size];
+		this.highs = new double[size];
+		this.undefined = new boolean[size];
+		Arrays.fill(this.slots, -1);
+		for (int i = 0; i < size; i++) {
+			EvalNode node = order.get(i);
+			indices.put(node, i);
+			this.opcodes[i] = LEAF;
+			if (node instanceof EvalNode.Constant)
+				this.lows[i] = this.highs[i] = ((EvalNode.Constant) node).getValue();
+			else if (node instanceof EvalNode.Variable)
+				this.slots[i] = ((EvalNode.Variable) node).getSlot();
+			else {
+				EvalNode.Operator operator = (EvalNode.Operator) node;
+				this.opcodes[i] = operator.getOpcode();
+				this.lefts[i] = operator.getLeft() == null ? -1 : indices.get(operator.getLeft());
+				this.rights[i] = indices.get(operator.getRight());
+			}
+		}
+	}
+
+	public int getVariableCount() {
+		return this.variableCount;
+	}
+
+	// Bounds the expression with every variable between its low and high value, given in slot order
+	public Interval evaluate(double[] variableLows, double[] variableHighs) throws Exception {
+		int valueCount = Math.min(variableLows.length, variableHighs.length);
+		if (valueCount < this.variableCount)
+			throw new Exception("Missing ranges for variables!: expected " + this.variableCount + " ranges but got " + valueCount);
+		for (int i = 0; i < this.variableCount; i++)
+			if (!(variableLows[i] <= variableHighs[i]))
+				throw new Exception("Invalid range!: [" + variableLows[i] + ", " + variableHighs[i] + "]");
+		int size = this.opcodes.length;
+		for (int node = 0; node < size; node++) {
+			if (this.opcodes[node] != LEAF)
+				this.computeNode(node);
+			else if (this.slots[node] != -1) {
+				this.lows[node] = variableLows[this.slots[node]];
+				this.highs[node] = variableHighs[this.slots[node]];
+			}
+		}
+		return new Interval(this.lows[size - 1], this.highs[size - 1], this.undefined[size - 1]);
+	}
+
+	// Bounds a operator node from the bounds of its operands, [a, b] for the left one and [c, d] for the right one
+	private void computeNode(int node) {
+		int opcode = this.opcodes[node], left = this.lefts[node], right = this.rights[node];
+		double a = left == -1 ? 0 : this.lows[left], b = left == -1 ? 0 : this.highs[left];
+		double c = this.lows[right], d = this.highs[right];
+		boolean undefined = this.undefined[right] || (left != -1 && this.undefined[left]);
+		// Anything to the power of 0 is 1, even NaN
+		if (opcode == Operation.POW && c == 0 && d == 0) {
+			this.set(node, 1, 1, false);
+			return;
+		}
+		if (Double.isNaN(c) || Double.isNaN(a)) {
+			this.set(node, Double.NaN, Double.NaN, false);
+			return;
+		}
+		switch (opcode) {
+		case Operation.ADD:
+			this.set(node, a + c, b + d, undefined);
+			break;
+		case Operation.SUB:
+			this.set(node, a - d, b - c, undefined);
+			break;
+		case Operation.MUL:
+			this.corners(node, a * c, a * d, b * c, b * d, undefined);
+			break;
+		case Operation.DIV:
+			this.divide(node, a, b, c, d, undefined);
+			break;
+		case Operation.POW:
+			this.power(node, a, b, c, d, undefined);
+			break;
+		case Operation.SQRT:
+			if (d < 0)
+				this.set(node, Double.NaN, Double.NaN, false);
+			else
+				this.set(node, Math.sqrt(Math.max(c, 0)), Math.sqrt(d), undefined || c < 0);
+			break;
+		case Operation.LN:
+			if (d < 0)
+				this.set(node, Double.NaN, Double.NaN, false);
+			else
+				this.set(node, Operation.apply(Operation.LN, Math.max(c, 0), 0), Operation.apply(Operation.LN, d, 0), undefined || c < 0);
+			break;
+		case Operation.LOG:
+			// log(x, y) is log10(x) / log10(y)
+			if (b < 0 || d < 0)
+				this.set(node, Double.NaN, Double.NaN, false);
+			else
+				this.divide(node, Math.log10(Math.max(a, 0)), Math.log10(b), Math.log10(Math.max(c, 0)), Math.log10(d), undefined || a < 0 || c < 0);
+			break;
+		case Operation.ASIN:
+			if (d < -1 || c > 1)
+				this.set(node, Double.NaN, Double.NaN, false);
+			else
+				this.set(node, Math.asin(Math.max(c, -1)), Math.asin(Math.min(d, 1)), undefined || c < -1 || d > 1);
+			break;
+		case Operation.ACOS:
+			if (d < -1 || c > 1)
+				this.set(node, Double.NaN, Double.NaN, false);
+			else
+				this.set(node, Math.acos(Math.min(d, 1)), Math.acos(Math.max(c, -1)), undefined || c < -1 || d > 1);
+			break;
+		case Operation.ATAN:
+			this.set(node, Math.atan(c), Math.atan(d), undefined);
+			break;
+		case Operation.SIN:
+			// Peaks at pi / 2 and valleys at -pi / 2
+			this.periodic(node, c, d, Math.PI / 2, Math.sin(c), Math.sin(d), undefined);
+			break;
+		case Operation.COS:
+			// Peaks at 0 and valleys at pi
+			this.periodic(node, c, d, 0, Math.cos(c), Math.cos(d), undefined);
+			break;
+		case Operation.TAN:
+			// Poles at pi / 2 every pi, between them tan only goes up
+			if (Double.isInfinite(c) || Double.isInfinite(d))
+				this.set(node, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+			else if (d - c >= Math.PI || Math.max(-c, d) > MAX_PERIODIC_ARGUMENT || containsPeriodicPoint(c, d, Math.PI / 2, Math.PI))
+				this.set(node, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, undefined);
+			else
+				this.set(node, Math.tan(c), Math.tan(d), undefined);
+			break;
+		case Operation.MAX:
+			this.set(node, Math.max(a, c), Math.max(b, d), undefined);
+			break;
+		case Operation.MIN:
+			this.set(node, Math.min(a, c), Math.min(b, d), undefined);
+			break;
+		default:
+			// Nothing is known about registered functions, unless they are pure and called on single values
+			if (Operation.isPure(opcode) && a == b && c == d) {
+				double value = Operation.isUnary(opcode) ? Operation.apply(opcode, c, 0) : Operation.apply(opcode, a, c);
+				this.set(node, value, value, undefined);
+			} else
+				this.set(node, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+		}
+	}
+
+	// A single NaN bound means some combination of the ends isn't defined, like infinity minus infinity
+	// The node is then only known to be somewhere on the whole line, two NaN bounds mean it's NaN everywhere
+	private void set(int node, double low, double high, boolean undefined) {
+		if (Double.isNaN(low) != Double.isNaN(high)) {
+			low = Double.NEGATIVE_INFINITY;
+			high = Double.POSITIVE_INFINITY;
+			undefined = true;
+		}
+		this.lows[node] = low;
+		this.highs[node] = high;
+		this.undefined[node] = undefined;
+	}
+
+	// Bounds a operator that is monotonic in each operand by the values at the four corners of the ranges
+	private void corners(int node, double value, double value1, double value2, double value3, boolean undefined) {
+		if (Double.isNaN(value) || Double.isNaN(value1) || Double.isNaN(value2) || Double.isNaN(value3))
+			this.set(node, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+		else
+			this.set(node, Math.min(Math.min(value, value1), Math.min(value2, value3)), Math.max(Math.max(value, value1), Math.max(value2, value3)), undefined);
+	}
+
+	// A divisor range holding 0 can give any value, and 0 / 0 isn't defined
+	private void divide(int node, double a, double b, double c, double d, boolean undefined) {
+		if (c <= 0 && d >= 0)
+			this.set(node, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, undefined || (a <= 0 && b >= 0));
+		else
+			this.corners(node, a / c, a / d, b / c, b / d, undefined);
+	}
+
+	// x ^ y with x in [a, b] and y in [c, d]
+	private void power(int node, double a, double b, double c, double d, boolean undefined) {
+		// A single whole exponent is defined for negative bases too
+		if (c == d && c == Math.rint(c) && !Double.isInfinite(c)) {
+			double value = Math.pow(a, c), value1 = Math.pow(b, c);
+			boolean odd = Math.abs(c % 2) == 1;
+			if (a > 0 || b < 0 || (c > 0 && odd))
+				this.set(node, Math.min(value, value1), Math.max(value, value1), undefined);
+			else if (c > 0)
+				this.set(node, 0, Math.max(value, value1), undefined);
+			else if (odd)
+				this.set(node, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, undefined);
+			else
+				this.set(node, Math.min(value, value1), Double.POSITIVE_INFINITY, undefined);
+			return;
+		}
+		// Negative bases are only defined for whole exponents, the exponents in the range can't be told apart
+		if (a < 0) {
+			this.set(node, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+			return;
+		}
+		// For positive bases x ^ y = e ^ (y * ln(x)) and y * ln(x) is largest and smallest at the corners
+		double value = Math.pow(a, c), value1 = Math.pow(a, d), value2 = Math.pow(b, c), value3 = Math.pow(b, d);
+		this.corners(node, value, value1, value2, value3, undefined);
+		// -0 to a negative odd power is negative infinity
+		if (a == 0 && c < 0)
+			this.lows[node] = Double.NEGATIVE_INFINITY;
+	}
+
+	// Bounds sin or cos from its values at the ends of the range, or by 1 and -1 if the range holds a peak or a valley
+	// Peaks are at the given offset every 2 pi and valleys half way between them
+	private void periodic(int node, double low, double high, double peak, double value, double value1, boolean undefined) {
+		if (Double.isInfinite(low) || Double.isInfinite(high)) {
+			this.set(node, -1, 1, true);
+			return;
+		}
+		if (high - low >= TWO_PI || Math.max(-low, high) > MAX_PERIODIC_ARGUMENT) {
+			this.set(node, -1, 1, undefined);
+			return;
+		}
+		double min = containsPeriodicPoint(low, high, peak - Math.PI, TWO_PI) ? -1 : Math.min(value, value1);
+		double max = containsPeriodicPoint(low, high, peak, TWO_PI) ? 1 : Math.max(value, value1);
+		this.set(node, min, max, undefined);
+	}
+
+	// Checks if the range may hold offset + k * period for some whole k
+	// Math.PI isn't exactly pi and the points are rounded, so points just outside the range count too
+	private static boolean containsPeriodicPoint(double low, double high, double offset, double period) {
+		double k = Math.ceil((low - offset) / period);
+		for (double i = k - 1; i <= k + 1; i++) {
+			double point = offset + i * period;
+			double slack = 4 * (Math.ulp(point) + Math.ulp(Math.max(-low, high)));
+			if (point >= low - slack && point <= high + slack)
+				return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,234 @@
+import java.util.Arrays;
+
+// Splits a expression into tokens in a single pass over the text without copying it
+// The lexer only keeps the current token, its kind, opcode, number value and position in the text
+// Function and constant names are found with a trie so every position is looked at once
+final class Lexer {
+
+	// The kinds of tokens
+	static final int END = 0;
+	static final int NUMBER = 1;
+	static final int VARIABLE = 2;
+	static final int FUNCTION = 3;
+	static final int OPERATOR = 4;
+	static final int LEFT_PARENTHESIS = 5;
+	static final int RIGHT_PARENTHESIS = 6;
+	static final int COMMA = 7;
+
+	// The trie of function and constant names, each node has a child for every lower case letter
+	// The value of a node is the opcode of the function ending there, or one of the constants below
+	// A trie is never changed once lexers can see it, adding a name publishes a new copy so lexing needs no lock
+	private static final int ALPHABET_SIZE = 26;
+	private static final int NO_VALUE = -1;
+	private static final int PI = -2;
+	private static final int E = -3;
+	private static volatile Trie trie = new Trie(new int[ALPHABET_SIZE], new int[] { NO_VALUE });
+	static {
+		for (int opcode = 0; opcode < Operation.FIRST_FUNCTION; opcode++)
+			if (Character.isLetter(Operation.symbol(opcode).charAt(0)))
+				addName(Operation.symbol(opcode), opcode);
+		addName("pi", PI);
+		addName("e", E);
+	}
+
+	// Powers of ten that are exact doubles, used to read short numbers without parsing a string
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	// The biggest integer a double holds exactly
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	private final CharSequence text;
+	private int position;
+
+	// The current token
+	private int kind, opcode, start, end;
+	private double number;
+
+	Lexer(CharSequence text) {
+		this.text = text;
+	}
+
+	// Adds the name of a registered function so following lexers read it as a call to the opcode
+	static void addFunction(String name, int opcode) {
+		addName(name, opcode);
+	}
+
+	private static synchronized void addName(String name, int value) {
+		int[] trieChildren = trie.children.clone(), trieValues = trie.values.clone();
+		int node = 0;
+		for (int i = 0; i < name.length(); i++) {
+			int index = node * ALPHABET_SIZE + name.charAt(i) - 'a';
+			if (trieChildren[index] == 0) {
+				int child = trieValues.length;
+				trieValues = Arrays.copyOf(trieValues, child + 1);
+				trieValues[child] = NO_VALUE;
+				trieChildren = Arrays.copyOf(trieChildren, (child + 1) * ALPHABET_SIZE);
+				trieChildren[index] = child;
+			}
+			node = trieChildren[index];
+		}
+		trieValues[node] = value;
+		trie = new Trie(trieChildren, trieValues);
+	}
+
+	// Reads the next token and returns its kind, characters that aren't part of any token are skipped
+	int next() {
+		CharSequence text = this.text;
+		while (this.position < text.length()) {
+			char c = text.charAt(this.position);
+			this.start = this.position;
+			if (Character.isDigit(c) || (c == '.' && this.position + 1 < text.length() && Character.isDigit(text.charAt(this.position + 1))))
+				return this.readNumber();
+			if (Character.isLetter(c)) {
+				if (this.readName())
+					return this.kind;
+				return this.readVariable();
+			}
+			this.position++;
+			this.end = this.position;
+			switch (c) {
+			case '(':
+				return this.kind = LEFT_PARENTHESIS;
+			case ')':
+				return this.kind = RIGHT_PARENTHESIS;
+			case ',':
+				return this.kind = COMMA;
+			case '+':
+				return this.operator(Operation.ADD);
+			case '-':
+				return this.operator(Operation.SUB);
+			case '*':
+				return this.operator(Operation.MUL);
+			case '/':
+				return this.operator(Operation.DIV);
+			case '^':
+				return this.operator(Operation.POW);
+			default:
+				break;
+			}
+		}
+		this.start = this.end = this.position;
+		return this.kind = END;
+	}
+
+	int kind() {
+		return this.kind;
+	}
+
+	// The opcode of a function or operator token
+	int opcode() {
+		return this.opcode;
+	}
+
+	// The value of a number token
+	double number() {
+		return this.number;
+	}
+
+	// Where the token starts and ends in the text
+	int start() {
+		return this.start;
+	}
+
+	int end() {
+		return this.end;
+	}
+
+	// Checks if the current token is spelled the same as the given name
+	boolean tokenEquals(String name) {
+		if (name.length() != this.end - this.start)
+			return false;
+		for (int i = 0; i < name.length(); i++)
+			if (name.charAt(i) != this.text.charAt(this.start + i))
+				return false;
+		return true;
+	}
+
+	String tokenText() {
+		return this.text.subSequence(this.start, this.end).toString();
+	}
+
+	private int operator(int opcode) {
+		this.opcode = opcode;
+		return this.kind = OPERATOR;
+	}
+
+	// Reads digits with at most a single dot
+	private int readNumber() {
+		CharSequence text = this.text;
+		long mantissa = 0;
+		int fractionDigits = 0;
+		boolean seenDot = false;
+		while (this.position < text.length()) {
+			char c = text.charAt(this.position);
+			if (c == '.' && !seenDot)
+				seenDot = true;
+			else if (Character.isDigit(c)) {
+				if (mantissa < MAX_EXACT_MANTISSA)
+					mantissa = mantissa * 10 + Character.digit(c, 10);
+				if (seenDot)
+					fractionDigits++;
+			} else
+				break;
+			this.position++;
+		}
+		this.end = this.position;
+		// A single division of two exact doubles is correctly rounded, so it gives the same value as parsing
+		if (mantissa < MAX_EXACT_MANTISSA && fractionDigits < POWERS_OF_TEN.length)
+			this.number = mantissa / POWERS_OF_TEN[fractionDigits];
+		else
+			this.number = Double.parseDouble(this.tokenText());
+		return this.kind = NUMBER;
+	}
+
+	// Follows the trie as far as the text matches it and returns true if a function or constant name was found
+	// Like before names are matched even when more letters follow them, so sinx reads as sin x
+	private boolean readName() {
+		CharSequence text = this.text;
+		int[] trieChildren = trie.children, trieValues = trie.values;
+		int node = 0, matchedValue = NO_VALUE, matchedEnd = -1;
+		for (int i = this.position; i < text.length(); i++) {
+			int letter = text.charAt(i) - 'a';
+			if (letter < 0 || letter >= ALPHABET_SIZE)
+				break;
+			node = trieChildren[node * ALPHABET_SIZE + letter];
+			if (node == 0)
+				break;
+			if (trieValues[node] != NO_VALUE) {
+				matchedValue = trieValues[node];
+				matchedEnd = i + 1;
+			}
+		}
+		if (matchedValue == NO_VALUE)
+			return false;
+		this.position = this.end = matchedEnd;
+		if (matchedValue == PI || matchedValue == E) {
+			this.number = matchedValue == PI ? Math.PI : Math.E;
+			this.kind = NUMBER;
+		} else {
+			this.opcode = matchedValue;
+			this.kind = FUNCTION;
+		}
+		return true;
+	}
+
+	// Reads a variable name made of letters and digits
+	private int readVariable() {
+		CharSequence text = this.text;
+		while (this.position < text.length() && Character.isLetterOrDigit(text.charAt(this.position)))
+			this.position++;
+		this.end = this.position;
+		return this.kind = VARIABLE;
+	}
+
+	private static final class Trie {
+
+		private final int[] children, values;
+
+		private Trie(int[] children, int[] values) {
+			this.children = children;
+			this.values = values;
+		}
+
+	}
+
+}
@@ -1,3 +1,5 @@
+import java.util.ArrayList;
+
 
 public class Node<T> implements Cloneable {
 	
@@ -58,31 +60,63 @@ public class Node<T> implements Cloneable {
 		return cls.isInstance(this.getData());
 	}
 	
+	// Copies the tree with a explicit stack of the nodes to copy and their copies, so it works for trees of any height
 	@Override
 	protected Node<String> clone() throws CloneNotSupportedException {
-		Node<String> clonedNode = new Node<String>(this.getData().toString());
-		if (this.hasLeft())
-			clonedNode.setLeft(this.getLeft().clone());
-		if (this.hasRight())
-			clonedNode.setRight(this.getRight().clone());
-		return clonedNode;
+		Node<String> clonedRoot = new Node<String>(this.getData().toString());
+		ArrayList<Node<?>> originals = new ArrayList<Node<?>>();
+		ArrayList<Node<String>> copies = new ArrayList<Node<String>>();
+		originals.add(this);
+		copies.add(clonedRoot);
+		while (!originals.isEmpty()) {
+			Node<?> original = originals.remove(originals.size() - 1);
+			Node<String> clonedNode = copies.remove(copies.size() - 1);
+			if (original.hasLeft()) {
+				clonedNode.setLeft(new Node<String>(original.getLeft().getData().toString()));
+				originals.add(original.getLeft());
+				copies.add(clonedNode.getLeft());
+			}
+			if (original.hasRight()) {
+				clonedNode.setRight(new Node<String>(original.getRight().getData().toString()));
+				originals.add(original.getRight());
+				copies.add(clonedNode.getRight());
+			}
+		}
+		return clonedRoot;
 	}
 	
 	@Override
 	public String toString() {
         StringBuilder buffer = new StringBuilder(50);
-        print(buffer, "", "");
+        print(buffer);
         return buffer.toString();
     }
 
-    private void print(StringBuilder buffer, String prefix, String childrenPrefix) {
-        buffer.append(prefix);
-        buffer.append(this.getData());
-        buffer.append('\n');
-        if (this.hasLeft())
-        	this.getLeft().print(buffer, childrenPrefix + "├── ", childrenPrefix + "│   ");
-        if (this.hasRight())
-        	this.getRight().print(buffer, childrenPrefix + "└── ", childrenPrefix + "    ");
+    // Prints the tree with a explicit stack of the nodes left to print and their prefixes, the left child is printed first
+    private void print(StringBuilder buffer) {
+        ArrayList<Node<T>> nodes = new ArrayList<Node<T>>();
+        ArrayList<String> prefixes = new ArrayList<String>(), childrenPrefixes = new ArrayList<String>();
+        nodes.add(this);
+        prefixes.add("");
+        childrenPrefixes.add("");
+        while (!nodes.isEmpty()) {
+            int top = nodes.size() - 1;
+            Node<T> node = nodes.remove(top);
+            String prefix = prefixes.remove(top), childrenPrefix = childrenPrefixes.remove(top);
+            buffer.append(prefix);
+            buffer.append(node.getData());
+            buffer.append('\n');
+            if (node.hasRight()) {
+                nodes.add(node.getRight());
+                prefixes.add(childrenPrefix + "└── ");
+                childrenPrefixes.add(childrenPrefix + "    ");
+            }
+            if (node.hasLeft()) {
+                nodes.add(node.getLeft());
+                prefixes.add(childrenPrefix + "├── ");
+                childrenPrefixes.add(childrenPrefix + "│   ");
+            }
+        }
     }
 	
 }
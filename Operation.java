@@ -0,0 +1,107 @@
+import java.util.HashMap;
+
+// The opcodes of the operators and functions, opcodes from FIRST_FUNCTION on belong to functions added to FunctionRegistry
+public final class Operation {
+
+	// Opcodes for every operator and function the parser knows about
+	public static final int ADD = 0;
+	public static final int SUB = 1;
+	public static final int MUL = 2;
+	public static final int DIV = 3;
+	public static final int POW = 4;
+	public static final int SQRT = 5;
+	public static final int SIN = 6;
+	public static final int COS = 7;
+	public static final int TAN = 8;
+	public static final int ASIN = 9;
+	public static final int ACOS = 10;
+	public static final int ATAN = 11;
+	public static final int LN = 12;
+	public static final int LOG = 13;
+	public static final int MAX = 14;
+	public static final int MIN = 15;
+	// The opcode of the first registered function
+	public static final int FIRST_FUNCTION = 16;
+
+	// The token of each opcode, indexed by the opcode
+	private static final String[] SYMBOLS = { "+", "-", "*", "/", "^", "sqrt", "sin", "cos", "tan", "asin", "acos", "atan", "ln", "log", "max", "min" };
+	private static final HashMap<String, Integer> OPCODES = new HashMap<String, Integer>();
+	static {
+		for (int i = 0; i < SYMBOLS.length; i++)
+			OPCODES.put(SYMBOLS[i], i);
+	}
+
+	// ln is computed through log10 the same way it always was so results stay bit-for-bit identical
+	static final double LOG10_E = Math.log10(Math.E);
+
+	private Operation() {
+	}
+
+	// Returns the opcode of a token or -1 if the token is not an operator
+	public static int fromToken(String token) {
+		Integer opcode = OPCODES.get(token);
+		return opcode != null ? opcode : FunctionRegistry.opcodeOf(token);
+	}
+
+	// Returns the token of a given opcode
+	public static String symbol(int opcode) {
+		return opcode < FIRST_FUNCTION ? SYMBOLS[opcode] : FunctionRegistry.get(opcode).getName();
+	}
+
+	// The number of opcodes, including the registered functions
+	public static int count() {
+		return FIRST_FUNCTION + FunctionRegistry.size();
+	}
+
+	// Checks if a opcode only needs a single value
+	public static boolean isUnary(int opcode) {
+		return (opcode >= SQRT && opcode <= LN) || (opcode >= FIRST_FUNCTION && FunctionRegistry.get(opcode).getArity() == 1);
+	}
+
+	// Checks if a opcode always gives the same result for the same values, so it can be folded on constants
+	public static boolean isPure(int opcode) {
+		return opcode < FIRST_FUNCTION || FunctionRegistry.get(opcode).isPure();
+	}
+
+	// Executes a opcode on its values, unary opcodes only look at the first value
+	public static double apply(int opcode, double value, double value1) {
+		switch (opcode) {
+		case ADD:
+			return value + value1;
+		case SUB:
+			return value - value1;
+		case MUL:
+			return value * value1;
+		case DIV:
+			return value / value1;
+		case POW:
+			return Math.pow(value, value1);
+		case SQRT:
+			return Math.sqrt(value);
+		case SIN:
+			return Math.sin(value);
+		case COS:
+			return Math.cos(value);
+		case TAN:
+			return Math.tan(value);
+		case ASIN:
+			return Math.asin(value);
+		case ACOS:
+			return Math.acos(value);
+		case ATAN:
+			return Math.atan(value);
+		case LN:
+			return Math.log10(value) / LOG10_E;
+		case LOG:
+			return Math.log10(value) / Math.log10(value1);
+		case MAX:
+			return Math.max(value, value1);
+		case MIN:
+			return Math.min(value, value1);
+		default:
+			// Registered functions are found by their opcode in a table, without looking up their name
+			return FunctionRegistry.get(opcode).apply(value, value1);
+		}
+	}
+
+}
@@ -0,0 +1,329 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+// Simplifies typed expression trees by rewriting them with a table of rules until none of them applies
+// The rules work on the numbers in the nodes directly, and nodes are interned so identical terms are the same node
+// That lets like terms be found by identity, for example 2 * sin(x) + sin(x) * 3 turns into 5.0 * sin(x)
+public final class Simplifier {
+
+	// The most passes over the tree before giving up on reaching a fixed point
+	private static final int MAX_PASSES = 32;
+
+	// A rewrite rule returns the replacement of a operator node, or null if it doesn't apply
+	private interface Rule {
+		EvalNode apply(Simplifier simplifier, EvalNode.Operator node);
+	}
+
+	// Operators on constants are replaced by their value, functions only if they are pure
+	private static final Rule CONSTANT_FOLDING = new Rule() {
+		@Override
+		public EvalNode apply(Simplifier simplifier, EvalNode.Operator node) {
+			if (!(node.getRight() instanceof EvalNode.Constant) || (node.getLeft() != null && !(node.getLeft() instanceof EvalNode.Constant)))
+				return null;
+			if (!Operation.isPure(node.getOpcode()))
+				return null;
+			double value1 = ((EvalNode.Constant) node.getRight()).getValue();
+			double value = node.getLeft() == null ? value1 : ((EvalNode.Constant) node.getLeft()).getValue();
+			return simplifier.constant(Operation.apply(node.getOpcode(), value, value1));
+		}
+	};
+
+	// Operations with zeros and ones that don't change the value or always give the same value
+	private static final Rule IDENTITIES = new Rule() {
+		@Override
+		public EvalNode apply(Simplifier simplifier, EvalNode.Operator node) {
+			EvalNode left = node.getLeft(), right = node.getRight();
+			switch (node.getOpcode()) {
+			case Operation.ADD:
+				if (isConstant(left, 0))
+					return right;
+				if (isConstant(right, 0))
+					return left;
+				break;
+			case Operation.SUB:
+				if (isConstant(right, 0))
+					return left;
+				if (left == right)
+					return simplifier.constant(0);
+				break;
+			case Operation.MUL:
+				if (isConstant(left, 0) || isConstant(right, 0))
+					return simplifier.constant(0);
+				if (isConstant(left, 1))
+					return right;
+				if (isConstant(right, 1))
+					return left;
+				break;
+			case Operation.DIV:
+				if (isConstant(left, 0))
+					return simplifier.constant(0);
+				if (isConstant(right, 1))
+					return left;
+				break;
+			case Operation.POW:
+				if (isConstant(right, 0) || isConstant(left, 1))
+					return simplifier.constant(1);
+				if (isConstant(right, 1))
+					return left;
+				break;
+			default:
+				break;
+			}
+			return null;
+		}
+	};
+
+	// Flattens chains of + and - into terms with a coefficient, adds up the coefficients of like terms
+	// and puts all of the constants into a single one at the end
+	private static final Rule SUM_CHAINS = new Rule() {
+		@Override
+		public EvalNode apply(Simplifier simplifier, EvalNode.Operator node) {
+			if (node.getOpcode() != Operation.ADD && node.getOpcode() != Operation.SUB)
+				return null;
+			ArrayList<EvalNode> terms = new ArrayList<EvalNode>();
+			ArrayList<Double> coefficients = new ArrayList<Double>();
+			double constant = simplifier.collectTerms(node, 1, terms, coefficients, 0);
+			EvalNode sum = null;
+			for (int i = 0; i < terms.size(); i++) {
+				double coefficient = coefficients.get(i);
+				if (coefficient == 0)
+					continue;
+				if (sum == null)
+					sum = simplifier.scale(coefficient, terms.get(i));
+				else if (coefficient < 0)
+					sum = simplifier.operator(Operation.SUB, sum, simplifier.scale(-coefficient, terms.get(i)));
+				else
+					sum = simplifier.operator(Operation.ADD, sum, simplifier.scale(coefficient, terms.get(i)));
+			}
+			// A NaN constant is kept too, dropping it would turn a undefined result into a number
+			if (sum == null)
+				sum = simplifier.constant(constant);
+			else if (constant < 0)
+				sum = simplifier.operator(Operation.SUB, sum, simplifier.constant(-constant));
+			else if (!(constant == 0))
+				sum = simplifier.operator(Operation.ADD, sum, simplifier.constant(constant));
+			return sum == node ? null : sum;
+		}
+	};
+
+	// Flattens chains of * into factors with a exponent, adds up the exponents of like factors
+	// and puts all of the constants into a single one at the start
+	private static final Rule PRODUCT_CHAINS = new Rule() {
+		@Override
+		public EvalNode apply(Simplifier simplifier, EvalNode.Operator node) {
+			if (node.getOpcode() != Operation.MUL)
+				return null;
+			ArrayList<EvalNode> factors = new ArrayList<EvalNode>();
+			ArrayList<Double> exponents = new ArrayList<Double>();
+			double constant = simplifier.collectFactors(node, factors, exponents, 1);
+			if (constant == 0)
+				return simplifier.constant(0);
+			EvalNode product = null;
+			for (int i = 0; i < factors.size(); i++) {
+				double exponent = exponents.get(i);
+				if (exponent == 0)
+					continue;
+				EvalNode factor = exponent == 1 ? factors.get(i) : simplifier.operator(Operation.POW, factors.get(i), simplifier.constant(exponent));
+				product = product == null ? factor : simplifier.operator(Operation.MUL, product, factor);
+			}
+			if (product == null)
+				product = simplifier.constant(constant);
+			else if (constant != 1)
+				product = simplifier.operator(Operation.MUL, simplifier.constant(constant), product);
+			return product == node ? null : product;
+		}
+	};
+
+	private static final Rule[] RULES = { CONSTANT_FOLDING, IDENTITIES, SUM_CHAINS, PRODUCT_CHAINS };
+	// The index of the first rule that flattens chains
+	private static final int CHAIN_RULES_START = 2;
+
+	private final CommonSubexpressions nodes;
+	private IdentityHashMap<EvalNode, EvalNode> simplified;
+	// The nodes of the current pass that some parent uses outside of a chain of the same kind
+	private IdentityHashMap<EvalNode, Boolean> chainEnds;
+
+	public Simplifier() {
+		this(new CommonSubexpressions());
+	}
+
+	// The nodes are built through the given builder so several simplified trees can share their nodes
+	public Simplifier(CommonSubexpressions nodes) {
+		this.nodes = nodes;
+	}
+
+	// Returns the simplified tree, the tree given isn't changed
+	public EvalNode simplify(EvalNode root) {
+		EvalNode current = this.nodes.intern(root, new IdentityHashMap<EvalNode, EvalNode>());
+		for (int pass = 0; pass < MAX_PASSES; pass++) {
+			this.simplified = new IdentityHashMap<EvalNode, EvalNode>();
+			ArrayList<EvalNode> order = CommonSubexpressions.postfixOrder(current);
+			this.findChainEnds(current, order);
+			// Every node comes after its operands so they are already simplified, without recursion
+			for (EvalNode node : order)
+				this.simplified.put(node, this.simplifyNode(node));
+			EvalNode next = this.simplified.get(current);
+			if (next == current)
+				break;
+			current = next;
+		}
+		return current;
+	}
+
+	// Finds the nodes that end a chain of + and - or of *, the chain rules only need to run on them
+	// Running them on every link too would walk long chains once per link
+	private void findChainEnds(EvalNode root, ArrayList<EvalNode> order) {
+		this.chainEnds = new IdentityHashMap<EvalNode, Boolean>();
+		this.chainEnds.put(root, Boolean.TRUE);
+		for (EvalNode node : order)
+			if (node instanceof EvalNode.Operator) {
+				EvalNode.Operator operator = (EvalNode.Operator) node;
+				if (operator.getLeft() != null && chainKind(operator.getLeft()) != chainKind(node))
+					this.chainEnds.put(operator.getLeft(), Boolean.TRUE);
+				if (chainKind(operator.getRight()) != chainKind(node))
+					this.chainEnds.put(operator.getRight(), Boolean.TRUE);
+			}
+	}
+
+	// The kind of chain a node links, + and - make one kind and * another, -1 for nodes outside of chains
+	private static int chainKind(EvalNode node) {
+		if (!(node instanceof EvalNode.Operator))
+			return -1;
+		int opcode = ((EvalNode.Operator) node).getOpcode();
+		if (opcode == Operation.SUB)
+			return Operation.ADD;
+		return opcode == Operation.ADD || opcode == Operation.MUL ? opcode : -1;
+	}
+
+	// Rebuilds the node over its simplified operands and then rewrites it until no rule applies
+	private EvalNode simplifyNode(EvalNode node) {
+		if (!(node instanceof EvalNode.Operator))
+			return node;
+		EvalNode.Operator operator = (EvalNode.Operator) node;
+		EvalNode left = operator.getLeft() == null ? null : this.simplified.get(operator.getLeft());
+		EvalNode result = this.nodes.operator(operator.getOpcode(), left, this.simplified.get(operator.getRight()));
+		// A link inside a chain is flattened with the rest of the chain at its end
+		int ruleCount = this.chainEnds.containsKey(node) ? RULES.length : CHAIN_RULES_START;
+		boolean rewritten = true;
+		while (rewritten && result instanceof EvalNode.Operator) {
+			rewritten = false;
+			for (int i = 0; i < ruleCount; i++) {
+				EvalNode replacement = RULES[i].apply(this, (EvalNode.Operator) result);
+				if (replacement != null) {
+					result = replacement;
+					rewritten = true;
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	// Adds the terms of a sum chain with their coefficient and returns the sum of its constants
+	// The chain is walked with a explicit stack, left before right so the terms keep their order
+	private double collectTerms(EvalNode root, double sign, ArrayList<EvalNode> terms, ArrayList<Double> coefficients, double constant) {
+		IdentityHashMap<EvalNode, Integer> indices = new IdentityHashMap<EvalNode, Integer>();
+		EvalNode[] nodes = new EvalNode[16];
+		double[] signs = new double[16];
+		int top = 0;
+		nodes[0] = root;
+		signs[0] = sign;
+		while (top >= 0) {
+			EvalNode node = nodes[top];
+			sign = signs[top--];
+			if (node instanceof EvalNode.Constant) {
+				constant += sign * ((EvalNode.Constant) node).getValue();
+				continue;
+			}
+			if (node instanceof EvalNode.Operator) {
+				EvalNode.Operator operator = (EvalNode.Operator) node;
+				if (operator.getOpcode() == Operation.ADD || operator.getOpcode() == Operation.SUB) {
+					if (top + 2 >= nodes.length) {
+						nodes = Arrays.copyOf(nodes, nodes.length * 2);
+						signs = Arrays.copyOf(signs, signs.length * 2);
+					}
+					nodes[++top] = operator.getRight();
+					signs[top] = operator.getOpcode() == Operation.SUB ? -sign : sign;
+					nodes[++top] = operator.getLeft();
+					signs[top] = sign;
+					continue;
+				}
+				// Split a constant factor from the term
+				if (operator.getOpcode() == Operation.MUL && operator.getLeft() instanceof EvalNode.Constant) {
+					sign *= ((EvalNode.Constant) operator.getLeft()).getValue();
+					node = operator.getRight();
+				} else if (operator.getOpcode() == Operation.MUL && operator.getRight() instanceof EvalNode.Constant) {
+					sign *= ((EvalNode.Constant) operator.getRight()).getValue();
+					node = operator.getLeft();
+				}
+			}
+			addTo(node, sign, terms, coefficients, indices);
+		}
+		return constant;
+	}
+
+	// Adds the factors of a product chain with their exponent and returns the product of its constants
+	private double collectFactors(EvalNode root, ArrayList<EvalNode> factors, ArrayList<Double> exponents, double constant) {
+		IdentityHashMap<EvalNode, Integer> indices = new IdentityHashMap<EvalNode, Integer>();
+		EvalNode[] nodes = new EvalNode[16];
+		int top = 0;
+		nodes[0] = root;
+		while (top >= 0) {
+			EvalNode node = nodes[top--];
+			if (node instanceof EvalNode.Constant) {
+				constant *= ((EvalNode.Constant) node).getValue();
+				continue;
+			}
+			double exponent = 1;
+			if (node instanceof EvalNode.Operator) {
+				EvalNode.Operator operator = (EvalNode.Operator) node;
+				if (operator.getOpcode() == Operation.MUL) {
+					if (top + 2 >= nodes.length)
+						nodes = Arrays.copyOf(nodes, nodes.length * 2);
+					nodes[++top] = operator.getRight();
+					nodes[++top] = operator.getLeft();
+					continue;
+				}
+				// Split a constant exponent from the factor
+				if (operator.getOpcode() == Operation.POW && operator.getRight() instanceof EvalNode.Constant) {
+					exponent = ((EvalNode.Constant) operator.getRight()).getValue();
+					node = operator.getLeft();
+				}
+			}
+			addTo(node, exponent, factors, exponents, indices);
+		}
+		return constant;
+	}
+
+	// Adds a amount to the number of a node, like terms are found by identity since the nodes are interned
+	private static void addTo(EvalNode node, double amount, ArrayList<EvalNode> nodes, ArrayList<Double> amounts, IdentityHashMap<EvalNode, Integer> indices) {
+		Integer index = indices.get(node);
+		if (index == null) {
+			indices.put(node, nodes.size());
+			nodes.add(node);
+			amounts.add(amount);
+		} else
+			amounts.set(index, amounts.get(index) + amount);
+	}
+
+	// Multiplies a term by its coefficient
+	private EvalNode scale(double coefficient, EvalNode term) {
+		if (coefficient == 1)
+			return term;
+		return this.operator(Operation.MUL, this.constant(coefficient), term);
+	}
+
+	private EvalNode operator(int opcode, EvalNode left, EvalNode right) {
+		return this.nodes.operator(opcode, left, right);
+	}
+
+	private EvalNode constant(double value) {
+		return this.nodes.constant(value);
+	}
+
+	private static boolean isConstant(EvalNode node, double value) {
+		return node instanceof EvalNode.Constant && ((EvalNode.Constant) node).getValue() == value;
+	}
+
+}
@@ -0,0 +1,299 @@
+import java.util.ArrayList;
+
+// Finds roots and minimums of expressions using their derivatives
+// The derivatives come from Expression.findDerivative and everything is evaluated through the compiled forms on primitive doubles
+public final class Solver {
+
+	private static final int DEFAULT_MAX_ITERATIONS = 100;
+	// The smallest line search step before giving up on a direction
+	private static final double MIN_STEP = 1e-12;
+	// How much a line search step has to decrease the value compared to the slope, the Armijo condition
+	private static final double SUFFICIENT_DECREASE = 1e-4;
+	private static final double EPSILON = Math.ulp(1.0);
+	// The most parts findRoots splits a range into before looking for a sign change in each part
+	private static final int MAX_ROOT_PARTS = 1 << 12;
+
+	private Solver() {
+	}
+
+	// Finds a root of a single variable expression with Newton-Raphson starting from the guess
+	public static SolverResult newton(Expression expression, double guess, double tolerance) throws Exception {
+		return newton(expression, guess, tolerance, DEFAULT_MAX_ITERATIONS);
+	}
+
+	public static SolverResult newton(Expression expression, double guess, double tolerance, int maxIterations) throws Exception {
+		CompiledExpression function = checkSingleVariable(expression).compile();
+		CompiledExpression derivative = expression.findDerivative(singleVariable(expression)).compile();
+		double[] values = { guess };
+		double x = guess, value = Double.NaN, step = Double.NaN;
+		int iteration = 0;
+		while (iteration < maxIterations) {
+			iteration++;
+			values[0] = x;
+			value = function.apply(values);
+			if (value == 0)
+				return new SolverResult(new double[] { x }, value, 0, iteration, 2L * iteration - 1, true, "Newton-Raphson");
+			double slope = derivative.apply(values);
+			step = value / slope;
+			if (!isFinite(step))
+				break;
+			x -= step;
+			if (Math.abs(step) <= tolerance * (1 + Math.abs(x))) {
+				values[0] = x;
+				return new SolverResult(new double[] { x }, function.apply(values), Math.abs(step), iteration, 2L * iteration + 1, true, "Newton-Raphson");
+			}
+		}
+		return new SolverResult(new double[] { x }, value, Math.abs(step), iteration, 2L * iteration, false, "Newton-Raphson");
+	}
+
+	// Finds a root of a single variable expression between two points where its value has different signs using Brent's method
+	public static SolverResult brent(Expression expression, double start, double end, double tolerance) throws Exception {
+		return brent(expression, start, end, tolerance, DEFAULT_MAX_ITERATIONS);
+	}
+
+	// Source: Brent, Algorithms for Minimization without Derivatives, chapter 4
+	public static SolverResult brent(Expression expression, double start, double end, double tolerance, int maxIterations) throws Exception {
+		CompiledExpression function = checkSingleVariable(expression).compile();
+		double[] values = new double[1];
+		double a = start, b = end;
+		values[0] = a;
+		double fa = function.apply(values);
+		values[0] = b;
+		double fb = function.apply(values);
+		long evaluations = 2;
+		if (fa * fb > 0)
+			throw new Exception("The root isn't bracketed!: f(" + start + ") = " + fa + ", f(" + end + ") = " + fb);
+		double c = a, fc = fa, d = b - a, e = d, middle = Double.NaN;
+		for (int iteration = 1; iteration <= maxIterations; iteration++) {
+			// Keep the root between b and c
+			if (fb * fc > 0) {
+				c = a;
+				fc = fa;
+				d = e = b - a;
+			}
+			// Keep b as the best guess
+			if (Math.abs(fc) < Math.abs(fb)) {
+				a = b;
+				b = c;
+				c = a;
+				fa = fb;
+				fb = fc;
+				fc = fa;
+			}
+			double bound = 2 * EPSILON * Math.abs(b) + tolerance / 2;
+			middle = (c - b) / 2;
+			if (Math.abs(middle) <= bound || fb == 0)
+				return new SolverResult(new double[] { b }, fb, Math.abs(middle), iteration, evaluations, true, "Brent");
+			if (Math.abs(e) >= bound && Math.abs(fa) > Math.abs(fb)) {
+				// Try inverse quadratic interpolation, or the secant method when only two points are known
+				double s = fb / fa, p, q;
+				if (a == c) {
+					p = 2 * middle * s;
+					q = 1 - s;
+				} else {
+					double r = fb / fc;
+					q = fa / fc;
+					p = s * (2 * middle * q * (q - r) - (b - a) * (r - 1));
+					q = (q - 1) * (r - 1) * (s - 1);
+				}
+				if (p > 0)
+					q = -q;
+				p = Math.abs(p);
+				// Accept the interpolation only if it stays inside the bracket and converges fast enough, otherwise bisect
+				if (2 * p < Math.min(3 * middle * q - Math.abs(bound * q), Math.abs(e * q))) {
+					e = d;
+					d = p / q;
+				} else {
+					d = middle;
+					e = d;
+				}
+			} else {
+				d = middle;
+				e = d;
+			}
+			a = b;
+			fa = fb;
+			b += Math.abs(d) > bound ? d : Math.copySign(bound, middle);
+			values[0] = b;
+			fb = function.apply(values);
+			evaluations++;
+		}
+		return new SolverResult(new double[] { b }, fb, Math.abs(middle), maxIterations, evaluations, false, "Brent");
+	}
+
+	// Finds a root between two points, trying Newton-Raphson from the middle first
+	// If Newton-Raphson doesn't converge or leaves the range Brent's method is used instead
+	public static SolverResult findRoot(Expression expression, double start, double end, double tolerance) throws Exception {
+		SolverResult newton = newton(expression, (start + end) / 2, tolerance, DEFAULT_MAX_ITERATIONS / 2);
+		double root = newton.getRoot();
+		if (newton.isConverged() && root >= Math.min(start, end) && root <= Math.max(start, end))
+			return newton;
+		SolverResult brent = brent(expression, start, end, tolerance);
+		return new SolverResult(brent.getPoint(), brent.getValue(), brent.getResidual(), newton.getIterations() + brent.getIterations(),
+				newton.getEvaluations() + brent.getEvaluations(), brent.isConverged(), "Brent after Newton-Raphson");
+	}
+
+	// Finds the roots of a single variable expression between two points where its value changes sign, in increasing order
+	// The range is split in halves, and the halves that interval evaluation shows can't hold a zero are dropped
+	// without evaluating the expression anywhere in them, Brent's method finds the root in the small parts left
+	// A root the expression only touches without changing sign is only found if a part starts right on it
+	public static ArrayList<SolverResult> findRoots(Expression expression, double start, double end, double tolerance) throws Exception {
+		checkSingleVariable(expression);
+		if (!(start < end))
+			throw new Exception("Invalid range!: [" + start + ", " + end + "]");
+		IntervalEvaluator bounds = expression.newIntervalEvaluator();
+		CompiledExpression function = expression.compile();
+		double minWidth = Math.max((end - start) / MAX_ROOT_PARTS, tolerance);
+		double[] low = new double[1], high = new double[1];
+		ArrayList<SolverResult> roots = new ArrayList<SolverResult>();
+		// The parts left to look at, the part on top is always the leftmost one so the roots come in order
+		ArrayList<double[]> parts = new ArrayList<double[]>();
+		parts.add(new double[] { start, end });
+		while (!parts.isEmpty()) {
+			double[] part = parts.remove(parts.size() - 1);
+			low[0] = part[0];
+			high[0] = part[1];
+			if (!bounds.evaluate(low, high).contains(0))
+				continue;
+			double middle = (part[0] + part[1]) / 2;
+			if (part[1] - part[0] > minWidth && middle > part[0] && middle < part[1]) {
+				parts.add(new double[] { middle, part[1] });
+				parts.add(new double[] { part[0], middle });
+				continue;
+			}
+			double value = function.apply(low), value1 = function.apply(high);
+			if (value == 0)
+				roots.add(new SolverResult(new double[] { part[0] }, 0, 0, 0, 2, true, "Interval"));
+			else if (value1 == 0 && part[1] == end)
+				roots.add(new SolverResult(new double[] { part[1] }, 0, 0, 0, 2, true, "Interval"));
+			else if (value * value1 < 0)
+				roots.add(brent(expression, part[0], part[1], tolerance));
+		}
+		return roots;
+	}
+
+	// Finds a local minimum of a expression with Newton's method starting from the given values, one per variable
+	public static SolverResult minimize(Expression expression, double[] start, double tolerance) throws Exception {
+		return minimize(expression, start, tolerance, DEFAULT_MAX_ITERATIONS);
+	}
+
+	// Every step solves the Hessian system for the Newton direction and falls back to the gradient when that isn't a descent direction
+	// A backtracking line search makes sure every step decreases the value
+	public static SolverResult minimize(Expression expression, double[] start, double tolerance, int maxIterations) throws Exception {
+		int n = expression.getVariables().size();
+		if (start.length < n)
+			throw new Exception("Missing start values!: expected " + n + " values but got " + start.length);
+		CompiledExpression function = expression.compile();
+		Expression[] gradientExpressions = expression.findGradient();
+		CompiledExpression[] gradient = new CompiledExpression[n];
+		CompiledExpression[][] hessian = new CompiledExpression[n][];
+		for (int i = 0; i < n; i++) {
+			gradient[i] = gradientExpressions[i].compile();
+			Expression[] secondDerivatives = gradientExpressions[i].findGradient();
+			hessian[i] = new CompiledExpression[n];
+			for (int j = 0; j < n; j++)
+				hessian[i][j] = secondDerivatives[j].compile();
+		}
+		double[] x = start.clone(), g = new double[n], direction = new double[n], candidate = new double[n];
+		double[][] h = new double[n][n];
+		double value = function.apply(x), gradientNorm = Double.NaN;
+		long evaluations = 1;
+		for (int iteration = 1; iteration <= maxIterations; iteration++) {
+			gradientNorm = 0;
+			for (int i = 0; i < n; i++) {
+				g[i] = gradient[i].apply(x);
+				gradientNorm += g[i] * g[i];
+			}
+			gradientNorm = Math.sqrt(gradientNorm);
+			evaluations += n;
+			if (gradientNorm <= tolerance)
+				return new SolverResult(x, value, gradientNorm, iteration, evaluations, true, "Newton");
+			for (int i = 0; i < n; i++)
+				for (int j = 0; j < n; j++)
+					h[i][j] = hessian[i][j].apply(x);
+			evaluations += (long) n * n;
+			double slope = 0;
+			if (solve(h, g, direction))
+				for (int i = 0; i < n; i++) {
+					direction[i] = -direction[i];
+					slope += g[i] * direction[i];
+				}
+			if (!(slope < 0)) {
+				// Not a descent direction, use steepest descent
+				slope = 0;
+				for (int i = 0; i < n; i++) {
+					direction[i] = -g[i];
+					slope -= g[i] * g[i];
+				}
+			}
+			double step = 1, candidateValue;
+			while (true) {
+				for (int i = 0; i < n; i++)
+					candidate[i] = x[i] + step * direction[i];
+				candidateValue = function.apply(candidate);
+				evaluations++;
+				if (candidateValue <= value + SUFFICIENT_DECREASE * step * slope || step < MIN_STEP)
+					break;
+				step /= 2;
+			}
+			if (step < MIN_STEP)
+				return new SolverResult(x, value, gradientNorm, iteration, evaluations, false, "Newton");
+			System.arraycopy(candidate, 0, x, 0, n);
+			value = candidateValue;
+		}
+		return new SolverResult(x, value, gradientNorm, maxIterations, evaluations, false, "Newton");
+	}
+
+	// Solves matrix * result = vector with Gaussian elimination and partial pivoting, the matrix is overwritten
+	// Returns false if the matrix is singular
+	private static boolean solve(double[][] matrix, double[] vector, double[] result) {
+		int n = vector.length;
+		System.arraycopy(vector, 0, result, 0, n);
+		for (int column = 0; column < n; column++) {
+			int pivot = column;
+			for (int row = column + 1; row < n; row++)
+				if (Math.abs(matrix[row][column]) > Math.abs(matrix[pivot][column]))
+					pivot = row;
+			if (!(Math.abs(matrix[pivot][column]) > 0))
+				return false;
+			double[] swappedRow = matrix[pivot];
+			matrix[pivot] = matrix[column];
+			matrix[column] = swappedRow;
+			double swappedValue = result[pivot];
+			result[pivot] = result[column];
+			result[column] = swappedValue;
+			for (int row = column + 1; row < n; row++) {
+				double factor = matrix[row][column] / matrix[column][column];
+				for (int k = column; k < n; k++)
+					matrix[row][k] -= factor * matrix[column][k];
+				result[row] -= factor * result[column];
+			}
+		}
+		for (int row = n - 1; row >= 0; row--) {
+			double sum = result[row];
+			for (int k = row + 1; k < n; k++)
+				sum -= matrix[row][k] * result[k];
+			result[row] = sum / matrix[row][row];
+		}
+		for (int i = 0; i < n; i++)
+			if (!isFinite(result[i]))
+				return false;
+		return true;
+	}
+
+	private static Expression checkSingleVariable(Expression expression) throws Exception {
+		if (expression.getVariables().size() > 1)
+			throw new Exception("This method only works for single variable expresisons!");
+		return expression;
+	}
+
+	// The name of the only variable, or an empty name for expressions without variables so their derivative is zero
+	private static String singleVariable(Expression expression) {
+		return expression.getVariables().isEmpty() ? "" : expression.getVariables().iterator().next();
+	}
+
+	private static boolean isFinite(double value) {
+		return !Double.isNaN(value) && !Double.isInfinite(value);
+	}
+
+}
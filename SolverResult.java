@@ -0,0 +1,68 @@
+import java.util.Arrays;
+
+// The result of a root search or a minimization with its convergence diagnostics
+public final class SolverResult {
+
+	private final double[] point;
+	private final double value;
+	private final double residual;
+	private final int iterations;
+	private final long evaluations;
+	private final boolean converged;
+	private final String method;
+
+	public SolverResult(double[] point, double value, double residual, int iterations, long evaluations, boolean converged, String method) {
+		this.point = point;
+		this.value = value;
+		this.residual = residual;
+		this.iterations = iterations;
+		this.evaluations = evaluations;
+		this.converged = converged;
+		this.method = method;
+	}
+
+	// The root or minimum found, one value per variable
+	public double[] getPoint() {
+		return point.clone();
+	}
+
+	// The root or minimum of a single variable expression
+	public double getRoot() {
+		return point[0];
+	}
+
+	// The value of the expression at the point
+	public double getValue() {
+		return value;
+	}
+
+	// How far from converging the last iteration was, the step size for roots and the gradient size for minimums
+	public double getResidual() {
+		return residual;
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	// How many times the expression and its derivatives were evaluated all together
+	public long getEvaluations() {
+		return evaluations;
+	}
+
+	public boolean isConverged() {
+		return converged;
+	}
+
+	// The method that produced the point
+	public String getMethod() {
+		return method;
+	}
+
+	@Override
+	public String toString() {
+		return this.method + (this.converged ? " converged to " : " stopped at ") + Arrays.toString(this.point) + " = " + this.value
+				+ " after " + this.iterations + " iterations (residual " + this.residual + ")";
+	}
+
+}
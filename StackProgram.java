@@ -0,0 +1,356 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+// A flat stack machine version of an expression
+// The instructions are the postfix order of the expression tree, operators use their opcode from Operation
+// and operands are pushed from a constant pool or from the variable values
+// Nodes shared by several parents in a DAG are computed once, stored in a temporary and loaded after that
+// A program can also compute several roots one after the other, each of them stored in its own output
+public final class StackProgram {
+
+	// Instructions that push a value, each is followed by the index of the value
+	// They are negative so they never clash with a opcode, registered functions add opcodes after the built in ones
+	public static final int PUSH_CONSTANT = -1;
+	public static final int LOAD_VARIABLE = -2;
+	public static final int LOAD_TEMPORARY = -3;
+	// Copies the top of the stack into a temporary without popping it, followed by the index of the temporary
+	public static final int STORE_TEMPORARY = -4;
+	// Pops the top of the stack into a output, followed by the index of the output
+	public static final int STORE_OUTPUT = -5;
+
+	// The number of rows evaluated together in a batch, small enough for the stack columns to stay in cache
+	private static final int BLOCK_SIZE = 512;
+
+	// The operand stacks reused by evaluate(double[]), one per thread and grown to fit the biggest program it ran
+	// A stack is taken out while in use, so a registered function that evaluates another expression gets a stack of its own
+	private static final ThreadLocal<double[]> STACKS = new ThreadLocal<double[]>();
+
+	private final int[] code;
+	private final double[] constants;
+	private final int maxStackSize;
+	private final int temporaryCount;
+	private final int operationCount;
+	private final int outputCount;
+
+	private StackProgram(int[] code, double[] constants, int maxStackSize, int temporaryCount, int operationCount, int outputCount) {
+		this.code = code;
+		this.constants = constants;
+		this.maxStackSize = maxStackSize;
+		this.temporaryCount = temporaryCount;
+		this.operationCount = operationCount;
+		this.outputCount = outputCount;
+	}
+
+	// Lowers a typed expression tree or DAG into a program
+	public static StackProgram compile(EvalNode root) {
+		Compiler compiler = new Compiler(CommonSubexpressions.countReferences(root));
+		compiler.emit(root);
+		return compiler.toProgram(0);
+	}
+
+	// Lowers several roots into a single program with a output for each root
+	// Nodes the roots have in common are computed once for all of them
+	public static StackProgram compile(EvalNode[] roots) {
+		IdentityHashMap<EvalNode, Integer> references = new IdentityHashMap<EvalNode, Integer>();
+		for (EvalNode root : roots)
+			CommonSubexpressions.countReferences(root, references);
+		Compiler compiler = new Compiler(references);
+		for (int i = 0; i < roots.length; i++) {
+			compiler.emit(roots[i]);
+			compiler.code.add(STORE_OUTPUT);
+			compiler.code.add(i);
+			compiler.depth--;
+		}
+		return compiler.toProgram(roots.length);
+	}
+
+	public int[] getCode() {
+		return code.clone();
+	}
+
+	public double[] getConstants() {
+		return constants.clone();
+	}
+
+	// The size of the operand stack the program needs
+	public int getMaxStackSize() {
+		return maxStackSize;
+	}
+
+	public int getTemporaryCount() {
+		return temporaryCount;
+	}
+
+	// The number of operators executed by each evaluation
+	public int getOperationCount() {
+		return operationCount;
+	}
+
+	// The number of outputs of a program compiled from several roots, 0 for a program with a single result
+	public int getOutputCount() {
+		return outputCount;
+	}
+
+	// Allocates a operand stack big enough for this program, it can be reused between evaluations
+	// The temporaries are kept after the operands and the outputs after the temporaries
+	public double[] newStack() {
+		return new double[this.maxStackSize + this.temporaryCount + this.outputCount];
+	}
+
+	// Runs the program with the given variable values indexed by their slot, on a stack reused by the calls of the same thread
+	public double evaluate(double[] variableValues) {
+		int size = this.maxStackSize + this.temporaryCount + this.outputCount;
+		double[] stack = STACKS.get();
+		if (stack == null || stack.length < size)
+			stack = new double[size];
+		else
+			STACKS.set(null);
+		try {
+			return this.evaluate(variableValues, stack);
+		} finally {
+			STACKS.set(stack);
+		}
+	}
+
+	// Runs the program with the given variable values indexed by their slot
+	// The stack must be at least as long as one from newStack() and must not be shared between threads
+	public double evaluate(double[] variableValues, double[] stack) {
+		int[] code = this.code;
+		int sp = -1;
+		for (int pc = 0; pc < code.length; pc++) {
+			int instruction = code[pc];
+			switch (instruction) {
+			case PUSH_CONSTANT:
+				stack[++sp] = this.constants[code[++pc]];
+				break;
+			case LOAD_VARIABLE:
+				stack[++sp] = variableValues[code[++pc]];
+				break;
+			case LOAD_TEMPORARY:
+				stack[++sp] = stack[this.maxStackSize + code[++pc]];
+				break;
+			case STORE_TEMPORARY:
+				stack[this.maxStackSize + code[++pc]] = stack[sp];
+				break;
+			case STORE_OUTPUT:
+				stack[this.maxStackSize + this.temporaryCount + code[++pc]] = stack[sp--];
+				break;
+			case Operation.ADD:
+				sp--;
+				stack[sp] = stack[sp] + stack[sp + 1];
+				break;
+			case Operation.SUB:
+				sp--;
+				stack[sp] = stack[sp] - stack[sp + 1];
+				break;
+			case Operation.MUL:
+				sp--;
+				stack[sp] = stack[sp] * stack[sp + 1];
+				break;
+			case Operation.DIV:
+				sp--;
+				stack[sp] = stack[sp] / stack[sp + 1];
+				break;
+			default:
+				if (Operation.isUnary(instruction))
+					stack[sp] = Operation.apply(instruction, stack[sp], 0);
+				else {
+					sp--;
+					stack[sp] = Operation.apply(instruction, stack[sp], stack[sp + 1]);
+				}
+			}
+		}
+		return stack[0];
+	}
+
+	// Runs a program compiled from several roots and copies the result of every root to the outputs
+	public void evaluate(double[] variableValues, double[] stack, double[] outputs) {
+		this.evaluate(variableValues, stack);
+		System.arraycopy(stack, this.maxStackSize + this.temporaryCount, outputs, 0, this.outputCount);
+	}
+
+	// Runs the program over columns of values, one column per variable slot
+	// Row i of the output gets the result for row i of every column, for rows offset to offset + length
+	// Each instruction runs over a whole block of rows at once so the inner loops stay simple enough to vectorize
+	public void evaluate(double[][] columns, double[] output, int offset, int length) {
+		double[][] stack = new double[this.maxStackSize + this.temporaryCount][Math.min(length, BLOCK_SIZE)];
+		for (int start = offset; start < offset + length; start += BLOCK_SIZE) {
+			int rows = Math.min(BLOCK_SIZE, offset + length - start);
+			this.evaluateBlock(columns, start, rows, stack);
+			System.arraycopy(stack[0], 0, output, start, rows);
+		}
+	}
+
+	// Runs a program compiled from several roots over columns of values, with a output column for every root
+	public void evaluate(double[][] columns, double[][] outputs, int offset, int length) {
+		int firstOutput = this.maxStackSize + this.temporaryCount;
+		double[][] stack = new double[firstOutput + this.outputCount][Math.min(length, BLOCK_SIZE)];
+		for (int start = offset; start < offset + length; start += BLOCK_SIZE) {
+			int rows = Math.min(BLOCK_SIZE, offset + length - start);
+			this.evaluateBlock(columns, start, rows, stack);
+			for (int i = 0; i < this.outputCount; i++)
+				System.arraycopy(stack[firstOutput + i], 0, outputs[i], start, rows);
+		}
+	}
+
+	private void evaluateBlock(double[][] columns, int start, int rows, double[][] stack) {
+		int[] code = this.code;
+		int sp = -1;
+		for (int pc = 0; pc < code.length; pc++) {
+			int instruction = code[pc];
+			if (instruction == PUSH_CONSTANT) {
+				Arrays.fill(stack[++sp], 0, rows, this.constants[code[++pc]]);
+				continue;
+			}
+			if (instruction == LOAD_VARIABLE) {
+				System.arraycopy(columns[code[++pc]], start, stack[++sp], 0, rows);
+				continue;
+			}
+			if (instruction == LOAD_TEMPORARY) {
+				System.arraycopy(stack[this.maxStackSize + code[++pc]], 0, stack[++sp], 0, rows);
+				continue;
+			}
+			if (instruction == STORE_TEMPORARY) {
+				System.arraycopy(stack[sp], 0, stack[this.maxStackSize + code[++pc]], 0, rows);
+				continue;
+			}
+			if (instruction == STORE_OUTPUT) {
+				System.arraycopy(stack[sp--], 0, stack[this.maxStackSize + this.temporaryCount + code[++pc]], 0, rows);
+				continue;
+			}
+			if (Operation.isUnary(instruction)) {
+				double[] value = stack[sp];
+				for (int i = 0; i < rows; i++)
+					value[i] = Operation.apply(instruction, value[i], 0);
+				continue;
+			}
+			sp--;
+			double[] value = stack[sp], value1 = stack[sp + 1];
+			switch (instruction) {
+			case Operation.ADD:
+				for (int i = 0; i < rows; i++)
+					value[i] = value[i] + value1[i];
+				break;
+			case Operation.SUB:
+				for (int i = 0; i < rows; i++)
+					value[i] = value[i] - value1[i];
+				break;
+			case Operation.MUL:
+				for (int i = 0; i < rows; i++)
+					value[i] = value[i] * value1[i];
+				break;
+			case Operation.DIV:
+				for (int i = 0; i < rows; i++)
+					value[i] = value[i] / value1[i];
+				break;
+			default:
+				for (int i = 0; i < rows; i++)
+					value[i] = Operation.apply(instruction, value[i], value1[i]);
+			}
+		}
+	}
+
+	// Walks the tree in postfix order and tracks how deep the stack gets
+	private static final class Compiler {
+
+		private final ArrayList<Integer> code = new ArrayList<Integer>();
+		private final ArrayList<Double> constants = new ArrayList<Double>();
+		private final HashMap<Long, Integer> constantIndices = new HashMap<Long, Integer>();
+		private final IdentityHashMap<EvalNode, Integer> references;
+		private final IdentityHashMap<EvalNode, Integer> temporaries = new IdentityHashMap<EvalNode, Integer>();
+		private int depth, maxDepth, operationCount;
+
+		private Compiler(IdentityHashMap<EvalNode, Integer> references) {
+			this.references = references;
+		}
+
+		// Emits the tree in postfix order with a explicit stack so trees of any height can be compiled
+		private void emit(EvalNode root) {
+			EvalNode[] nodes = new EvalNode[16];
+			// State 0 visits the left operand, state 1 the right one and state 2 emits the operator
+			int[] states = new int[16];
+			int top = 0;
+			nodes[0] = root;
+			while (top >= 0) {
+				EvalNode node = nodes[top];
+				if (top + 1 >= nodes.length) {
+					nodes = Arrays.copyOf(nodes, nodes.length * 2);
+					states = Arrays.copyOf(states, states.length * 2);
+				}
+				Integer temporary = this.temporaries.get(node);
+				if (temporary != null) {
+					this.code.add(LOAD_TEMPORARY);
+					this.code.add(temporary);
+					this.push();
+					top--;
+				} else if (node instanceof EvalNode.Constant) {
+					this.code.add(PUSH_CONSTANT);
+					this.code.add(this.constantIndex(((EvalNode.Constant) node).getValue()));
+					this.push();
+					top--;
+				} else if (node instanceof EvalNode.Variable) {
+					this.code.add(LOAD_VARIABLE);
+					this.code.add(((EvalNode.Variable) node).getSlot());
+					this.push();
+					top--;
+				} else {
+					EvalNode.Operator operator = (EvalNode.Operator) node;
+					if (states[top] == 0) {
+						states[top] = 1;
+						if (operator.getLeft() != null) {
+							nodes[++top] = operator.getLeft();
+							states[top] = 0;
+						}
+					} else if (states[top] == 1) {
+						states[top] = 2;
+						nodes[++top] = operator.getRight();
+						states[top] = 0;
+					} else {
+						this.code.add(operator.getOpcode());
+						this.operationCount++;
+						if (!Operation.isUnary(operator.getOpcode()))
+							this.depth--;
+						// Keep the value for the other parents of the node
+						if (this.references.get(node) > 1) {
+							this.temporaries.put(node, this.temporaries.size());
+							this.code.add(STORE_TEMPORARY);
+							this.code.add(this.temporaries.get(node));
+						}
+						top--;
+					}
+				}
+			}
+		}
+
+		private StackProgram toProgram(int outputCount) {
+			int[] code = new int[this.code.size()];
+			for (int i = 0; i < code.length; i++)
+				code[i] = this.code.get(i);
+			double[] constants = new double[this.constants.size()];
+			for (int i = 0; i < constants.length; i++)
+				constants[i] = this.constants.get(i);
+			return new StackProgram(code, constants, this.maxDepth, this.temporaries.size(), this.operationCount, outputCount);
+		}
+
+		private void push() {
+			this.depth++;
+			this.maxDepth = Math.max(this.maxDepth, this.depth);
+		}
+
+		// Identical constants share a single pool entry
+		private int constantIndex(double value) {
+			Long bits = Double.doubleToLongBits(value);
+			Integer index = this.constantIndices.get(bits);
+			if (index == null) {
+				index = this.constants.size();
+				this.constants.add(value);
+				this.constantIndices.put(bits, index);
+			}
+			return index;
+		}
+
+	}
+
+}
@@ -0,0 +1,117 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+
+// Evaluates a expression over files too big to fit in memory
+// Every input file is a column of raw little endian doubles, one file per variable in the order the variables were discovered
+// The files are read a chunk at a time into a reusable direct buffer per column, copied into reusable arrays, evaluated as a batch
+// and written to the output file through another reusable buffer
+// So the heap only ever holds a chunk of every column and nothing is allocated per chunk or row
+// The files aren't memory mapped, mappings are only released when the garbage collector gets to them,
+// which on a small heap may be long after thousands of chunks had piled up their mappings
+public final class StreamingEvaluator {
+
+	// The default number of rows in a chunk, 8 MB per column
+	public static final int DEFAULT_CHUNK_ROWS = 1 << 20;
+
+	private static final int DOUBLE_BYTES = Double.BYTES;
+	// The most rows in a chunk, a buffer can't have more than Integer.MAX_VALUE bytes
+	public static final int MAX_CHUNK_ROWS = Integer.MAX_VALUE / DOUBLE_BYTES;
+
+	private StreamingEvaluator() {
+	}
+
+	// Evaluates every row of the input files and writes the results to the output file, returns the number of rows
+	public static long evaluate(Expression expression, Path[] inputFiles, Path outputFile) throws Exception {
+		return evaluate(expression, inputFiles, outputFile, DEFAULT_CHUNK_ROWS, null);
+	}
+
+	public static long evaluate(Expression expression, Path[] inputFiles, Path outputFile, int chunkRows) throws Exception {
+		return evaluate(expression, inputFiles, outputFile, chunkRows, null);
+	}
+
+	// Same as above but every chunk is evaluated in parallel on the given pool
+	public static long evaluateParallel(Expression expression, Path[] inputFiles, Path outputFile, int chunkRows, ForkJoinPool pool) throws Exception {
+		return evaluate(expression, inputFiles, outputFile, chunkRows, pool);
+	}
+
+	private static long evaluate(Expression expression, Path[] inputFiles, Path outputFile, int chunkRows, ForkJoinPool pool) throws Exception {
+		if (chunkRows < 1 || chunkRows > MAX_CHUNK_ROWS)
+			throw new Exception("The chunk size must be between 1 and " + MAX_CHUNK_ROWS + " rows!: " + chunkRows);
+		if (inputFiles.length < expression.getVariables().size())
+			throw new Exception("Missing input files for variables!: expected " + expression.getVariables().size() + " files but got " + inputFiles.length);
+		if (inputFiles.length == 0)
+			throw new Exception("The expression has no variables to read rows for!");
+		FileChannel[] inputs = new FileChannel[inputFiles.length];
+		FileChannel output = null;
+		try {
+			long rows = -1;
+			for (int i = 0; i < inputs.length; i++) {
+				inputs[i] = FileChannel.open(inputFiles[i], StandardOpenOption.READ);
+				long size = inputs[i].size();
+				if (size % DOUBLE_BYTES != 0 || (rows != -1 && size / DOUBLE_BYTES != rows))
+					throw new Exception("The input files must have the same number of doubles!: " + inputFiles[i]);
+				rows = size / DOUBLE_BYTES;
+			}
+			output = FileChannel.open(outputFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			int chunkLength = (int) Math.min(chunkRows, rows);
+			double[][] columns = new double[inputs.length][chunkLength];
+			double[] results = new double[chunkLength];
+			ByteBuffer[] inputBuffers = new ByteBuffer[inputs.length];
+			DoubleBuffer[] inputValues = new DoubleBuffer[inputs.length];
+			for (int i = 0; i < inputs.length; i++) {
+				inputBuffers[i] = allocate(chunkLength);
+				inputValues[i] = inputBuffers[i].asDoubleBuffer();
+			}
+			ByteBuffer outputBuffer = allocate(chunkLength);
+			DoubleBuffer outputValues = outputBuffer.asDoubleBuffer();
+			for (long row = 0; row < rows; row += chunkLength) {
+				int length = (int) Math.min(chunkLength, rows - row);
+				long position = row * DOUBLE_BYTES;
+				for (int i = 0; i < inputs.length; i++) {
+					readFully(inputs[i], inputBuffers[i], position, (long) length * DOUBLE_BYTES, inputFiles[i]);
+					inputValues[i].get(0, columns[i], 0, length);
+				}
+				if (pool == null)
+					expression.evaluate(columns, results, 0, length);
+				else
+					expression.evaluateParallel(columns, results, 0, length, pool, Math.max(1, length / pool.getParallelism()));
+				outputValues.put(0, results, 0, length);
+				writeFully(output, outputBuffer, position, (long) length * DOUBLE_BYTES);
+			}
+			return rows;
+		} finally {
+			for (FileChannel input : inputs)
+				if (input != null)
+					input.close();
+			if (output != null)
+				output.close();
+		}
+	}
+
+	// A buffer for a chunk of little endian doubles, direct so reading and writing the files doesn't copy it once more
+	private static ByteBuffer allocate(int chunkLength) {
+		return ByteBuffer.allocateDirect(Math.toIntExact((long) chunkLength * DOUBLE_BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	// Reads the given number of bytes from the position of the file into the start of the buffer
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position, long bytes, Path file) throws Exception {
+		buffer.clear().limit(Math.toIntExact(bytes));
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new Exception("The input file ended before all of its rows were read!: " + file);
+	}
+
+	// Writes the given number of bytes from the start of the buffer to the position of the file, which grows it past its end
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position, long bytes) throws Exception {
+		buffer.clear().limit(Math.toIntExact(bytes));
+		while (buffer.hasRemaining())
+			channel.write(buffer, position + buffer.position());
+	}
+
+}
@@ -0,0 +1,94 @@
+package equationparser.jmh;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Starting up a catalog of expressions by parsing their text against loading them from a catalog file,
+// and evaluating every expression of the catalog from its typed tree against from a ExpressionStore
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogBenchmark {
+
+	@Param({ "1000" })
+	public int expressions;
+
+	private String[] texts;
+	private Object[] catalog;
+	private Path file;
+	private Object store;
+	private double[] values, scratch;
+
+	@Setup
+	public void setup() throws Throwable {
+		this.texts = new String[this.expressions];
+		this.catalog = new Object[this.expressions];
+		this.store = (Object) Library.NEW_STORE.invokeExact();
+		LinkedHashMap<String, Object> named = new LinkedHashMap<String, Object>();
+		Random random = new Random(this.expressions);
+		for (int i = 0; i < this.expressions; i++) {
+			this.texts[i] = Library.generate(6, 8, random, new int[1]);
+			this.catalog[i] = (Object) Library.MINIMIZE.invokeExact((Object) Library.NEW_EXPRESSION.invokeExact(this.texts[i]));
+			named.put("formula" + i, this.catalog[i]);
+			int index = (int) Library.STORE_ADD.invokeExact(this.store, this.catalog[i]);
+		}
+		this.file = Files.createTempFile("catalog", ".bin");
+		Library.CATALOG_WRITE.invokeExact((Map<String, Object>) named, this.file);
+		this.values = Library.values(8);
+		this.scratch = new double[(int) Library.STORE_SCRATCH_SIZE.invokeExact(this.store)];
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		Files.delete(this.file);
+	}
+
+	@Benchmark
+	public void catalogParse(Blackhole blackhole) throws Throwable {
+		for (String text : this.texts)
+			blackhole.consume((Object) Library.MINIMIZE.invokeExact((Object) Library.NEW_EXPRESSION.invokeExact(text)));
+	}
+
+	@Benchmark
+	public Object catalogLoad() throws Throwable {
+		return (Object) Library.CATALOG_READ.invokeExact(this.file);
+	}
+
+	@Benchmark
+	public double catalogEvaluate() throws Throwable {
+		double sum = 0;
+		for (Object expression : this.catalog)
+			sum += (double) Library.EVALUATE.invokeExact(expression, this.values);
+		return sum;
+	}
+
+	@Benchmark
+	public double storeEvaluate() throws Throwable {
+		double sum = 0;
+		for (int i = 0; i < this.expressions; i++)
+			sum += (double) Library.STORE_EVALUATE.invokeExact(this.store, i, this.values, this.scratch);
+		return sum;
+	}
+
+}
@@ -0,0 +1,46 @@
+package equationparser.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Differentiating generated expressions of growing depth by their first variable
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DerivativeBenchmark {
+
+	@Param({ "2", "6", "10" })
+	public int depth;
+
+	@Param({ "1", "8" })
+	public int variables;
+
+	private Object expression;
+
+	@Setup
+	public void setup() throws Throwable {
+		String text = Library.generate(this.depth, this.variables, new Random(this.depth * 31 + this.variables), new int[1]);
+		this.expression = (Object) Library.NEW_EXPRESSION.invokeExact(text);
+	}
+
+	@Benchmark
+	public Object findDerivative() throws Throwable {
+		return (Object) Library.FIND_DERIVATIVE.invokeExact(this.expression, "x0");
+	}
+
+}
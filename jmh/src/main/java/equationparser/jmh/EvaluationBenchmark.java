@@ -0,0 +1,72 @@
+package equationparser.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Parsing, evaluating and minimizing generated expressions of growing depth over 0, 1 and many variables
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBenchmark {
+
+	@Param({ "2", "6", "10" })
+	public int depth;
+
+	@Param({ "0", "1", "8" })
+	public int variables;
+
+	private String text;
+	private Object expression, compiled;
+	private double[] values;
+	private Double[] boxedValues;
+
+	@Setup
+	public void setup() throws Throwable {
+		this.text = Library.generate(this.depth, this.variables, new Random(this.depth * 31 + this.variables), new int[1]);
+		this.expression = (Object) Library.NEW_EXPRESSION.invokeExact(this.text);
+		this.compiled = (Object) Library.COMPILE.invokeExact(this.expression);
+		this.values = Library.values(this.variables);
+		this.boxedValues = Library.boxed(this.values);
+	}
+
+	@Benchmark
+	public Object parse() throws Throwable {
+		return (Object) Library.NEW_EXPRESSION.invokeExact(this.text);
+	}
+
+	@Benchmark
+	public Object evaluate() throws Throwable {
+		return (Object) Library.EVALUATE_BOXED.invokeExact(this.expression, this.boxedValues);
+	}
+
+	@Benchmark
+	public double evaluatePrimitive() throws Throwable {
+		return (double) Library.EVALUATE.invokeExact(this.expression, this.values);
+	}
+
+	@Benchmark
+	public double evaluateCompiled() throws Throwable {
+		return (double) Library.APPLY.invokeExact(this.compiled, this.values);
+	}
+
+	@Benchmark
+	public Object minimizeExpression() throws Throwable {
+		return (Object) Library.MINIMIZE.invokeExact(this.expression);
+	}
+
+}
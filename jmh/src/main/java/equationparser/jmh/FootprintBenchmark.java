@@ -0,0 +1,109 @@
+package equationparser.jmh;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The memory kept by the same expressions as typed trees, as Node<String> trees and in a ExpressionStore
+// Every operation builds the representation between two measurements of the heap after collecting garbage,
+// so the time includes the collections, the footprint counters are the result: the bytes kept per expression
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class FootprintBenchmark {
+
+	@Param({ "typedTrees", "nodeTrees", "store" })
+	public String representation;
+
+	@Param({ "20000" })
+	public int expressions;
+
+	private String[] texts;
+	private Object[] parsed;
+
+	// The bytes kept per expression, reported next to the time of every operation
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+
+		public double heapBytesPerExpression, offHeapBytesPerExpression;
+
+	}
+
+	@Setup
+	public void setup() {
+		this.texts = new String[this.expressions];
+		Random random = new Random(this.expressions);
+		for (int i = 0; i < this.expressions; i++)
+			this.texts[i] = Library.generate(6, 8, random, new int[1]);
+	}
+
+	// The node trees and the store are built from typed trees, which are parsed again every iteration
+	// so no Node<String> tree is left from the one before
+	@Setup(Level.Iteration)
+	public void parse() throws Throwable {
+		this.parsed = null;
+		if (this.representation.equals("typedTrees"))
+			return;
+		this.parsed = new Object[this.expressions];
+		for (int i = 0; i < this.expressions; i++)
+			this.parsed[i] = (Object) Library.MINIMIZE.invokeExact((Object) Library.NEW_EXPRESSION.invokeExact(this.texts[i]));
+	}
+
+	@Benchmark
+	public Object footprint(Footprint footprint) throws Throwable {
+		long start = usedHeap(), offHeapBytes = 0;
+		Object built;
+		if (this.representation.equals("typedTrees")) {
+			Object[] expressions = new Object[this.expressions];
+			for (int i = 0; i < this.expressions; i++)
+				expressions[i] = (Object) Library.MINIMIZE.invokeExact((Object) Library.NEW_EXPRESSION.invokeExact(this.texts[i]));
+			built = expressions;
+		} else if (this.representation.equals("nodeTrees")) {
+			// Printing a expression builds its Node<String> tree and keeps it
+			String[] printed = new String[this.expressions];
+			for (int i = 0; i < this.expressions; i++)
+				printed[i] = this.parsed[i].toString();
+			built = printed;
+		} else {
+			Object store = (Object) Library.NEW_STORE.invokeExact();
+			for (Object expression : this.parsed) {
+				int index = (int) Library.STORE_ADD.invokeExact(store, expression);
+			}
+			offHeapBytes = (long) Library.STORE_OFF_HEAP_BYTES.invokeExact(store);
+			built = store;
+		}
+		long heapBytes = usedHeap() - start;
+		footprint.heapBytesPerExpression = (double) heapBytes / this.expressions;
+		footprint.offHeapBytesPerExpression = (double) offHeapBytes / this.expressions;
+		return built;
+	}
+
+	// The heap in use after collecting as much garbage as possible
+	private static long usedHeap() {
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			used = Math.min(used, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+		}
+		return used;
+	}
+
+}
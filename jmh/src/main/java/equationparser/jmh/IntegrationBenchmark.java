@@ -0,0 +1,46 @@
+package equationparser.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Approximating the area under generated expressions of a single variable, or none, over [0, 1]
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntegrationBenchmark {
+
+	@Param({ "2", "6", "10" })
+	public int depth;
+
+	@Param({ "0", "1" })
+	public int variables;
+
+	private Object expression;
+
+	@Setup
+	public void setup() throws Throwable {
+		String text = Library.generate(this.depth, this.variables, new Random(this.depth * 31 + this.variables), new int[1]);
+		this.expression = (Object) Library.NEW_EXPRESSION.invokeExact(text);
+	}
+
+	@Benchmark
+	public Object approximateAreaUnderTheGraph() throws Throwable {
+		return (Object) Library.AREA.invokeExact(this.expression, (Double) 0.0, (Double) 1.0, (Double) 0.001);
+	}
+
+}
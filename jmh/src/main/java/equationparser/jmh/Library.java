@@ -0,0 +1,135 @@
+package equationparser.jmh;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+// The library is in the default package, which code in a package can't name, and JMH doesn't allow benchmarks in the default package
+// So the benchmarks call it through method handles, static final handles are constants the JIT inlines like direct calls
+// Every handle takes and returns the library objects as Object
+final class Library {
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+	private static final Class<?> EXPRESSION = find("Expression");
+	private static final Class<?> COMPILED_EXPRESSION = find("CompiledExpression");
+	private static final Class<?> EXPRESSION_CATALOG = find("ExpressionCatalog");
+	private static final Class<?> EXPRESSION_STORE = find("ExpressionStore");
+
+	// new Expression(String)
+	static final MethodHandle NEW_EXPRESSION = constructor(EXPRESSION, String.class);
+	// Double evaluate(Double...)
+	static final MethodHandle EVALUATE_BOXED = virtual(EXPRESSION, "evaluate", Double.class, Double[].class);
+	// double evaluate(double[])
+	static final MethodHandle EVALUATE = virtual(EXPRESSION, "evaluate", double.class, double[].class);
+	// CompiledExpression compile() and double apply(double[]) of the compiled expression
+	static final MethodHandle COMPILE = virtual(EXPRESSION, "compile", COMPILED_EXPRESSION);
+	static final MethodHandle APPLY = virtual(COMPILED_EXPRESSION, "apply", double.class, double[].class);
+	// void evaluate(double[][], double[], int, int)
+	static final MethodHandle EVALUATE_BATCH = virtual(EXPRESSION, "evaluate", void.class, double[][].class, double[].class, int.class, int.class);
+	// void evaluateParallel(double[][], double[], int, int, ForkJoinPool, int)
+	static final MethodHandle EVALUATE_PARALLEL = virtual(EXPRESSION, "evaluateParallel", void.class, double[][].class, double[].class, int.class, int.class, ForkJoinPool.class, int.class);
+	// Expression minimizeExpression()
+	static final MethodHandle MINIMIZE = virtual(EXPRESSION, "minimizeExpression", EXPRESSION);
+	// Expression findDerivative(String)
+	static final MethodHandle FIND_DERIVATIVE = virtual(EXPRESSION, "findDerivative", EXPRESSION, String.class);
+	// Double approximateAreaUnderTheGraph(Double, Double, Double)
+	static final MethodHandle AREA = virtual(EXPRESSION, "approximateAreaUnderTheGraph", Double.class, Double.class, Double.class, Double.class);
+	// static void ExpressionCatalog.write(Map<String, Expression>, Path) and static LinkedHashMap<String, Expression> read(Path)
+	static final MethodHandle CATALOG_WRITE = statics(EXPRESSION_CATALOG, "write", void.class, Map.class, Path.class);
+	static final MethodHandle CATALOG_READ = statics(EXPRESSION_CATALOG, "read", LinkedHashMap.class, Path.class);
+	// new ExpressionStore(), int add(Expression), double evaluate(int, double[], double[]), int getScratchSize() and long getOffHeapBytes()
+	static final MethodHandle NEW_STORE = constructor(EXPRESSION_STORE);
+	static final MethodHandle STORE_ADD = virtual(EXPRESSION_STORE, "add", int.class, EXPRESSION);
+	static final MethodHandle STORE_EVALUATE = virtual(EXPRESSION_STORE, "evaluate", double.class, int.class, double[].class, double[].class);
+	static final MethodHandle STORE_SCRATCH_SIZE = virtual(EXPRESSION_STORE, "getScratchSize", int.class);
+	static final MethodHandle STORE_OFF_HEAP_BYTES = virtual(EXPRESSION_STORE, "getOffHeapBytes", long.class);
+
+	private Library() {
+	}
+
+	// Generates a random expression of the given depth over the variables x0, x1 and so on, the benchmarks share the generator
+	// Two of every three leaves are variables, taken in turn so as many of them as the depth allows are used
+	static String generate(int depth, int variableCount, Random random, int[] leaves) {
+		if (depth == 0) {
+			int leaf = leaves[0]++;
+			if (variableCount > 0 && leaf % 3 != 2)
+				return "x" + (leaf - leaf / 3) % variableCount;
+			return Integer.toString(1 + random.nextInt(9));
+		}
+		switch (random.nextInt(6)) {
+		case 0:
+			return "sin(" + generate(depth - 1, variableCount, random, leaves) + ")";
+		case 1:
+			return "(" + generate(depth - 1, variableCount, random, leaves) + " * " + generate(depth - 1, variableCount, random, leaves) + ")";
+		case 2:
+			return "(" + generate(depth - 1, variableCount, random, leaves) + " - " + generate(depth - 1, variableCount, random, leaves) + ")";
+		case 3:
+			return "(" + generate(depth - 1, variableCount, random, leaves) + " / " + generate(depth - 1, variableCount, random, leaves) + ")";
+		default:
+			return "(" + generate(depth - 1, variableCount, random, leaves) + " + " + generate(depth - 1, variableCount, random, leaves) + ")";
+		}
+	}
+
+	static double[] values(int count) {
+		double[] values = new double[count];
+		for (int i = 0; i < count; i++)
+			values[i] = 0.5 + i;
+		return values;
+	}
+
+	static Double[] boxed(double[] values) {
+		Double[] boxed = new Double[values.length];
+		for (int i = 0; i < values.length; i++)
+			boxed[i] = values[i];
+		return boxed;
+	}
+
+	private static Class<?> find(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("The library isn't on the class path: " + name, e);
+		}
+	}
+
+	private static MethodHandle constructor(Class<?> owner, Class<?>... parameters) {
+		try {
+			return generic(LOOKUP.findConstructor(owner, MethodType.methodType(void.class, parameters)));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static MethodHandle virtual(Class<?> owner, String name, Class<?> returnType, Class<?>... parameters) {
+		try {
+			return generic(LOOKUP.findVirtual(owner, name, MethodType.methodType(returnType, parameters)));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static MethodHandle statics(Class<?> owner, String name, Class<?> returnType, Class<?>... parameters) {
+		try {
+			return generic(LOOKUP.findStatic(owner, name, MethodType.methodType(returnType, parameters)));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// Changes the library classes among the parameters of a handle to Object, and a object return to Object
+	private static MethodHandle generic(MethodHandle handle) {
+		MethodType type = handle.type();
+		for (int i = 0; i < type.parameterCount(); i++)
+			if (type.parameterType(i).getPackageName().isEmpty())
+				type = type.changeParameterType(i, Object.class);
+		if (!type.returnType().isPrimitive())
+			type = type.changeReturnType(Object.class);
+		return handle.asType(type);
+	}
+
+}
@@ -0,0 +1,73 @@
+package equationparser.jmh;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// How evaluating a million rows scales with the number of threads in the pool, compared with a single threaded batch
+// The scaling is the time of the batch divided by the time with n threads, near n when it scales linearly
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelEvaluationBenchmark {
+
+	private static final int ROWS = 1_000_000;
+
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	@Param({ "16384" })
+	public int granularity;
+
+	private Object expression;
+	private double[][] columns;
+	private double[] output;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setup() throws Throwable {
+		String text = Library.generate(6, 8, new Random(6 * 31 + 8), new int[1]);
+		this.expression = (Object) Library.NEW_EXPRESSION.invokeExact(text);
+		Random random = new Random(ROWS);
+		this.columns = new double[8][ROWS];
+		for (double[] column : this.columns)
+			for (int row = 0; row < ROWS; row++)
+				column[row] = random.nextDouble() * 4 - 2;
+		this.output = new double[ROWS];
+		this.pool = new ForkJoinPool(this.threads);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.pool.shutdown();
+	}
+
+	@Benchmark
+	public double[] evaluateBatch() throws Throwable {
+		Library.EVALUATE_BATCH.invokeExact(this.expression, this.columns, this.output, 0, ROWS);
+		return this.output;
+	}
+
+	@Benchmark
+	public double[] evaluateParallel() throws Throwable {
+		Library.EVALUATE_PARALLEL.invokeExact(this.expression, this.columns, this.output, 0, ROWS, this.pool, this.granularity);
+		return this.output;
+	}
+
+}
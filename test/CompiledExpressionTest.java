@@ -0,0 +1,153 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+// The compiled expressions must give exactly the same doubles as the tree evaluator, NaN and the sign of zero included
+public class CompiledExpressionTest {
+
+	private static final String[] FUNCTIONS = { "sqrt", "sin", "cos", "tan", "asin", "acos", "atan", "ln", "testcube", "log", "max", "min", "testhypot" };
+	private static final String[] OPERATORS = { " + ", " - ", " * ", " / ", " ^ " };
+	private static final double[] SPECIAL_VALUES = { 0.0, -0.0, 1.0, -1.0, 0.5, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, 1e300 };
+
+	@BeforeAll
+	public static void registerFunctions() throws Exception {
+		// The registry is shared by the whole test run, so the functions are only added once
+		if (FunctionRegistry.opcodeOf("testcube") == -1)
+			FunctionRegistry.register(new CustomFunction("testcube", 1, true) {
+				public double apply(double value, double value1) {
+					return value * value * value;
+				}
+			});
+		if (FunctionRegistry.opcodeOf("testhypot") == -1)
+			FunctionRegistry.register(new CustomFunction("testhypot", 2, true) {
+				public double apply(double value, double value1) {
+					return Math.hypot(value, value1);
+				}
+			});
+	}
+
+	@Test
+	public void randomExpressionsMatchTheEvaluator() throws Exception {
+		Random random = new Random(3);
+		for (int i = 0; i < 2000; i++) {
+			Expression expression = new Expression(randomExpression(random, 1 + random.nextInt(6)));
+			CompiledExpression compiled = expression.compile();
+			for (int j = 0; j < 10; j++) {
+				double[] values = randomValues(random, expression.getVariables().size());
+				assertBitsEqual(expression.evaluate(values), compiled.apply(values), expression);
+			}
+		}
+	}
+
+	@Test
+	public void specialValuesMatchTheEvaluator() throws Exception {
+		String[] texts = { "x * y", "x / y", "x - y", "x + y", "x ^ y", "max(x, y)", "min(x, y)", "sqrt(x)", "ln(x) + log(y, x)", "testcube(x) / y", "testhypot(x, y)", "0 * x", "x - x", "atan(x / y)" };
+		for (String text : texts) {
+			Expression expression = new Expression(text);
+			CompiledExpression compiled = expression.compile();
+			int variableCount = expression.getVariables().size();
+			for (double x : SPECIAL_VALUES)
+				for (double y : SPECIAL_VALUES) {
+					double[] values = variableCount == 1 ? new double[] { x } : new double[] { x, y };
+					assertBitsEqual(expression.evaluate(values), compiled.apply(values), expression);
+				}
+		}
+	}
+
+	@Test
+	public void minimizedExpressionsMatchTheEvaluator() throws Exception {
+		Random random = new Random(5);
+		for (int i = 0; i < 500; i++) {
+			Expression expression = new Expression(randomExpression(random, 1 + random.nextInt(5))).minimizeExpression();
+			CompiledExpression compiled = expression.compile();
+			double[] values = randomValues(random, expression.getVariables().size());
+			assertBitsEqual(expression.evaluate(values), compiled.apply(values), expression);
+		}
+	}
+
+	@Test
+	public void tallExpressionsFallBackWithTheSameResults() throws Exception {
+		// Too tall to compile into a single method, so the result comes from the stack program instead
+		StringBuilder text = new StringBuilder("x");
+		for (int i = 0; i < EvalNode.MAX_RECURSION_HEIGHT + 10; i++)
+			text.append(i % 2 == 0 ? " * 1.0001 + y" : " - 0.5 * x");
+		Expression expression = new Expression(text.toString());
+		double[] values = { 0.25, -0.0 };
+		assertBitsEqual(expression.evaluate(values), expression.compile().apply(values), expression);
+	}
+
+	@Test
+	public void fallbackReusesItsStack() throws Exception {
+		StringBuilder text = new StringBuilder("x");
+		for (int i = 0; i < EvalNode.MAX_RECURSION_HEIGHT + 10; i++)
+			text.append(" * 1.0001 + y");
+		final Expression expression = new Expression(text.toString());
+		final CompiledExpression compiled = expression.compile();
+		final double[] values = { 0.25, 0.5 };
+		final double expected = expression.evaluate(values);
+		for (int i = 0; i < 100; i++)
+			compiled.apply(values);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long start = threads.getCurrentThreadAllocatedBytes();
+		for (int i = 0; i < 1000; i++)
+			compiled.apply(values);
+		assertTrue(threads.getCurrentThreadAllocatedBytes() - start < 1000 * 8, "the fallback allocated on every call");
+		// Every thread gets its own stack
+		Thread[] workers = new Thread[4];
+		final boolean[] matched = new boolean[workers.length];
+		for (int i = 0; i < workers.length; i++) {
+			final int worker = i;
+			workers[i] = new Thread() {
+				@Override
+				public void run() {
+					boolean same = true;
+					for (int j = 0; j < 1000; j++)
+						same &= Double.doubleToLongBits(compiled.apply(values)) == Double.doubleToLongBits(expected);
+					matched[worker] = same;
+				}
+			};
+			workers[i].start();
+		}
+		for (int i = 0; i < workers.length; i++) {
+			workers[i].join();
+			assertTrue(matched[i]);
+		}
+	}
+
+	private static void assertBitsEqual(double expected, double actual, Expression expression) {
+		assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(actual), expression.getOriginalExpression() + ": " + expected + " != " + actual);
+	}
+
+	// A random expression over up to three variables using every operator and function
+	static String randomExpression(Random random, int depth) {
+		if (depth == 0) {
+			switch (random.nextInt(4)) {
+			case 0:
+				return Integer.toString(random.nextInt(10));
+			case 1:
+				return random.nextInt(100) / 10.0 + "";
+			default:
+				return "v" + random.nextInt(3);
+			}
+		}
+		if (random.nextBoolean())
+			return "(" + randomExpression(random, depth - 1) + OPERATORS[random.nextInt(OPERATORS.length)] + randomExpression(random, depth - 1) + ")";
+		String function = FUNCTIONS[random.nextInt(FUNCTIONS.length)];
+		if (function.equals("log") || function.equals("max") || function.equals("min") || function.equals("testhypot"))
+			return function + "(" + randomExpression(random, depth - 1) + ", " + randomExpression(random, depth - 1) + ")";
+		return function + "(" + randomExpression(random, depth - 1) + ")";
+	}
+
+	static double[] randomValues(Random random, int count) {
+		double[] values = new double[count];
+		for (int i = 0; i < count; i++)
+			values[i] = random.nextInt(4) == 0 ? SPECIAL_VALUES[random.nextInt(SPECIAL_VALUES.length)] : random.nextDouble() * 4 - 2;
+		return values;
+	}
+
+}
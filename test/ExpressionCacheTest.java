@@ -0,0 +1,47 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import org.junit.jupiter.api.Test;
+
+// The cache must give the same results as parsing the text, only faster
+public class ExpressionCacheTest {
+
+	@Test
+	public void whitespaceBetweenOperatorsIsIgnored() throws Exception {
+		ExpressionCache cache = new ExpressionCache(16);
+		Expression expression = cache.get("x + 1");
+		assertSame(expression, cache.get("x+1"));
+		assertSame(expression, cache.get("  x\t+   1 "));
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void whitespaceBetweenTokensIsKept() throws Exception {
+		ExpressionCache cache = new ExpressionCache(16);
+		assertEquals(23.0, cache.get("23").evaluate());
+		// The lexer reads these as two numbers or two variables in a row, which isn't a valid expression
+		assertMalformed(null, "2 3");
+		assertMalformed(cache, "2 3");
+		cache.get("xy + 1");
+		assertMalformed(cache, "x y + 1");
+		assertNotEquals(ExpressionCache.normalize("2 .5"), ExpressionCache.normalize("2.5"));
+		assertEquals(ExpressionCache.normalize("sin(x)  *  2"), ExpressionCache.normalize("sin(x)*2"));
+		assertEquals(ExpressionCache.normalize("x   y"), ExpressionCache.normalize("x y"));
+	}
+
+	// Checks that parsing the text fails, through the cache if one is given
+	private static void assertMalformed(ExpressionCache cache, String text) {
+		try {
+			if (cache == null)
+				new Expression(text);
+			else
+				cache.get(text);
+		} catch (Exception e) {
+			return;
+		}
+		fail("Parsed a malformed expression: " + text);
+	}
+
+}
@@ -0,0 +1,119 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Catalogs must load back into the same expressions, and a corrupt catalog must be reported as malformed
+public class ExpressionCatalogTest {
+
+	// The name of the first expression starts after the magic number, the version, the expression count and its own length
+	private static final int FIRST_NAME_LENGTH = 12;
+	// The first expression is area, its variable count comes after its name and is followed by x and y, each a length and one byte
+	private static final int FIRST_VARIABLE_COUNT = FIRST_NAME_LENGTH + 4 + 4;
+	private static final int SECOND_VARIABLE_NAME = FIRST_VARIABLE_COUNT + 4 + 5 + 4;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void expressionsLoadBack() throws Exception {
+		LinkedHashMap<String, Expression> catalog = catalog();
+		LinkedHashMap<String, Expression> loaded = ExpressionCatalog.read(this.write(catalog));
+		assertEquals(catalog.keySet(), loaded.keySet());
+		for (Map.Entry<String, Expression> entry : catalog.entrySet()) {
+			Expression expression = entry.getValue(), copy = loaded.get(entry.getKey());
+			assertEquals(expression.getVariables(), copy.getVariables());
+			double[] values = { 0.5, 1.5, 2.5 };
+			assertEquals(Double.doubleToLongBits(expression.evaluate(values)), Double.doubleToLongBits(copy.evaluate(values)));
+		}
+	}
+
+	@Test
+	public void badStringLengthsAreMalformed() throws Exception {
+		byte[] bytes = Files.readAllBytes(this.write(catalog()));
+		for (int length : new int[] { -1, Integer.MIN_VALUE, bytes.length, Integer.MAX_VALUE }) {
+			ByteBuffer corrupt = ByteBuffer.wrap(bytes.clone());
+			corrupt.putInt(FIRST_NAME_LENGTH, length);
+			assertMalformed(corrupt);
+		}
+	}
+
+	@Test
+	public void truncatedCatalogsAreMalformed() throws Exception {
+		byte[] bytes = Files.readAllBytes(this.write(catalog()));
+		for (int length = 12; length < bytes.length; length++)
+			assertMalformed(ByteBuffer.wrap(Arrays.copyOf(bytes, length)));
+	}
+
+	@Test
+	public void corruptCatalogsOnlyThrowCatalogErrors() throws Exception {
+		byte[] bytes = Files.readAllBytes(this.write(catalog()));
+		Random random = new Random(19);
+		for (int i = 0; i < 5000; i++) {
+			byte[] corrupt = bytes.clone();
+			corrupt[12 + random.nextInt(corrupt.length - 12)] = (byte) random.nextInt(256);
+			try {
+				ExpressionCatalog.read(ByteBuffer.wrap(corrupt));
+			} catch (RuntimeException e) {
+				throw new AssertionError("A corrupt catalog threw " + e, e);
+			} catch (Exception e) {
+				// Reported as a error of the catalog
+			}
+		}
+	}
+
+	@Test
+	public void badVariableTablesAreMalformed() throws Exception {
+		byte[] bytes = Files.readAllBytes(this.write(catalog()));
+		assertEquals('y', bytes[SECOND_VARIABLE_NAME]);
+		for (int count : new int[] { -1, Integer.MIN_VALUE, 3, bytes.length, Integer.MAX_VALUE }) {
+			ByteBuffer corrupt = ByteBuffer.wrap(bytes.clone());
+			corrupt.putInt(FIRST_VARIABLE_COUNT, count);
+			assertMalformed(corrupt);
+		}
+		// A name twice would leave a slot without a variable
+		byte[] duplicate = bytes.clone();
+		duplicate[SECOND_VARIABLE_NAME] = 'x';
+		try {
+			ExpressionCatalog.read(ByteBuffer.wrap(duplicate));
+			fail("Read a catalog with a variable twice");
+		} catch (Exception e) {
+			assertEquals("Malformed catalog!: area has the variable x twice", e.getMessage());
+		}
+	}
+
+	private static LinkedHashMap<String, Expression> catalog() throws Exception {
+		LinkedHashMap<String, Expression> catalog = new LinkedHashMap<String, Expression>();
+		catalog.put("area", new Expression("x * y / 2"));
+		catalog.put("wave", new Expression("sin(x) * cos(2 * y) + max(x, z)"));
+		catalog.put("constant", new Expression("3 ^ 2 - 1"));
+		return catalog;
+	}
+
+	private Path write(LinkedHashMap<String, Expression> catalog) throws Exception {
+		Path file = this.directory.resolve("catalog.bin");
+		ExpressionCatalog.write(catalog, file);
+		return file;
+	}
+
+	private static void assertMalformed(ByteBuffer buffer) {
+		try {
+			ExpressionCatalog.read(buffer);
+		} catch (Exception e) {
+			assertTrue(e.getMessage().startsWith("Malformed catalog!"), e.toString());
+			return;
+		}
+		fail("Read a malformed catalog");
+	}
+
+}
@@ -0,0 +1,32 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+// The counters are created on first use, counting has to work the same as if they always existed
+public class ExpressionMetricsTest {
+
+	@Test
+	public void countsOnlyWhileEnabled() throws Exception {
+		Expression expression = new Expression("x * 2 + y");
+		double[] values = { 1, 2 };
+		double[][] columns = { { 1, 2, 3 }, { 4, 5, 6 } };
+		expression.evaluate(values);
+		try {
+			ExpressionMetrics.setEnabled(true);
+			expression.evaluate(values);
+			expression.evaluate(columns, new double[3]);
+			// Expressions made from this one have their own counters
+			expression.minimizeExpression().evaluate(values);
+		} finally {
+			ExpressionMetrics.setEnabled(false);
+		}
+		expression.evaluate(values);
+		ExpressionMetrics metrics = expression.getMetrics();
+		assertSame(metrics, expression.getMetrics());
+		assertEquals(4, metrics.getEvaluationCount());
+		assertEquals(1, metrics.getBatchCount());
+		assertEquals(0, new Expression("x").getMetrics().getEvaluationCount());
+	}
+
+}
@@ -0,0 +1,65 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// Expressions evaluated from the store's columns must give the same bits as their typed trees
+public class ExpressionStoreTest {
+
+	@Test
+	public void storedExpressionsMatchTheirTrees() throws Exception {
+		CompiledExpressionTest.registerFunctions();
+		Random random = new Random(25);
+		Expression[] expressions = new Expression[200];
+		// A small capacity so the columns grow while adding
+		ExpressionStore store = new ExpressionStore(4);
+		for (int i = 0; i < expressions.length; i++) {
+			expressions[i] = new Expression(CompiledExpressionTest.randomExpression(random, 1 + random.nextInt(6)));
+			assertEquals(i, store.add(expressions[i]));
+		}
+		double[] scratch = new double[store.getScratchSize()];
+		for (int i = 0; i < expressions.length; i++) {
+			double[] values = CompiledExpressionTest.randomValues(random, expressions[i].getVariables().size());
+			long expected = Double.doubleToLongBits(expressions[i].evaluate(values));
+			assertEquals(expected, Double.doubleToLongBits(store.evaluate(i, values)), expressions[i].toString());
+			assertEquals(expected, Double.doubleToLongBits(store.evaluate(i, values, scratch)), expressions[i].toString());
+			assertEquals(expected, Double.doubleToLongBits(store.get(i).evaluate(values)), expressions[i].toString());
+		}
+	}
+
+	@Test
+	public void unknownExpressionsAreRejected() throws Exception {
+		ExpressionStore store = new ExpressionStore();
+		store.add(new Expression("x + 1"));
+		for (int expression : new int[] { -1, 1, Integer.MAX_VALUE }) {
+			try {
+				store.get(expression);
+				fail("Got expression " + expression + " of a store with one expression");
+			} catch (Exception e) {
+				assertEquals("Unknown expression!: " + expression, e.getMessage());
+			}
+			try {
+				store.evaluate(expression, new double[] { 1 });
+				fail("Evaluated expression " + expression + " of a store with one expression");
+			} catch (Exception e) {
+				assertEquals("Unknown expression!: " + expression, e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void capacitiesPastTheColumnLimitAreRejected() {
+		// The bytes of the int columns would overflow, so the store can't be created instead of getting negative sized buffers
+		for (int capacity : new int[] { Integer.MAX_VALUE / 4 + 1, Integer.MAX_VALUE }) {
+			try {
+				new ExpressionStore(capacity);
+				fail("Created a store with room for " + capacity + " nodes");
+			} catch (IllegalStateException e) {
+				assertEquals("The store is full: " + capacity + " elements don't fit in a column", e.getMessage());
+			}
+		}
+	}
+
+}
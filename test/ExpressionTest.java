@@ -0,0 +1,64 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+// Evaluating a expression computes every shared subexpression once per call, whichever way the values are given
+public class ExpressionTest {
+
+	private static final AtomicInteger calls = new AtomicInteger();
+
+	@BeforeAll
+	public static void registerFunctions() throws Exception {
+		// Declared pure so identical calls are shared, it only counts how many times it runs
+		if (FunctionRegistry.opcodeOf("testcalls") == -1)
+			FunctionRegistry.register(new CustomFunction("testcalls", 1, true) {
+				public double apply(double value, double value1) {
+					calls.incrementAndGet();
+					return value * 2;
+				}
+			});
+	}
+
+	@Test
+	public void sharedSubexpressionsAreEvaluatedOnce() throws Exception {
+		Expression expression = new Expression("testcalls(x) + testcalls(x) * sin(testcalls(x)) - testcalls(x) / y");
+		double expected = 3 + 3 * Math.sin(3) - 3 / 2.0;
+		calls.set(0);
+		assertEquals(expected, expression.evaluate(new double[] { 1.5, 2 }));
+		assertEquals(1, calls.get());
+		calls.set(0);
+		assertEquals(expected, expression.evaluate(1.5, 2.0));
+		assertEquals(1, calls.get());
+		calls.set(0);
+		Bindings bindings = expression.newBindings();
+		bindings.set("x", 1.5);
+		bindings.set("y", 2);
+		assertEquals(expected, expression.evaluate(bindings));
+		assertEquals(1, calls.get());
+		calls.set(0);
+		new Expression("testcalls(x) * testcalls(x)").approximateAreaUnderTheGraph(0.0, 1.0, 0.25);
+		assertEquals(5, calls.get());
+	}
+
+	@Test
+	public void deepDerivativesEvaluateTheirSharedNodesOnce() throws Exception {
+		// Every derivative of the chain repeats the chain below it, as a tree it would be evaluated many times over
+		String text = "x";
+		for (int i = 0; i < 12; i++)
+			text = "sin(" + text + ") * x";
+		Expression derivative = new Expression(text).findDerivative("x", 4);
+		double[] values = { 0.3 };
+		double expected = derivative.getEvaluationRoot().evaluate(values);
+		assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(derivative.evaluate(values)));
+		long start = System.nanoTime();
+		for (int i = 0; i < 1000; i++)
+			derivative.evaluate(values);
+		// A thousand evaluations of about 600 operations each, far below what walking the tree takes
+		long elapsedMillis = (System.nanoTime() - start) / 1000000;
+		assertEquals(true, elapsedMillis < 2000, "took " + elapsedMillis + " ms");
+	}
+
+}
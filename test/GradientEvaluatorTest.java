@@ -0,0 +1,88 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+// Both modes must agree with the derivative expressions, and with them on which expressions have no gradient
+public class GradientEvaluatorTest {
+
+	@BeforeAll
+	public static void registerFunctions() throws Exception {
+		CompiledExpressionTest.registerFunctions();
+		// Impure so calls on constants aren't folded away and reach the evaluator
+		if (FunctionRegistry.opcodeOf("testcounter") == -1)
+			FunctionRegistry.register(new CustomFunction("testcounter", 1, false) {
+				public double apply(double value, double value1) {
+					return value + 1;
+				}
+			});
+	}
+
+	@Test
+	public void modesMatchTheDerivatives() throws Exception {
+		Expression expression = new Expression("x * sin(y) + x ^ 3 / y - sqrt(x * y)");
+		double[] values = { 1.5, 0.75 };
+		double[] forward = new double[2], reverse = new double[2];
+		GradientEvaluator evaluator = expression.newGradientEvaluator();
+		double value = evaluator.evaluateForward(values, forward);
+		assertEquals(Double.doubleToLongBits(value), Double.doubleToLongBits(evaluator.evaluateReverse(values, reverse)));
+		Expression[] gradient = expression.findGradient();
+		for (int i = 0; i < 2; i++) {
+			assertEquals(gradient[i].evaluate(values), forward[i], 1e-12);
+			assertEquals(gradient[i].evaluate(values), reverse[i], 1e-12);
+		}
+	}
+
+	@Test
+	public void infinitePartialsOfConstantOperandsAreLeftOut() throws Exception {
+		assertModesAgree("x + sqrt(0)", new double[] { 2 }, new double[] { 1 });
+		assertModesAgree("x + asin(1) * y", new double[] { 2, 3 }, new double[] { 1, Math.PI / 2 });
+		// The derivative by y is infinite at 0, but the one by x is still sqrt(y)
+		assertModesAgree("x * sqrt(y)", new double[] { 2, 0 }, new double[] { 0, Double.POSITIVE_INFINITY });
+	}
+
+	@Test
+	public void registeredFunctionsOnVariablesHaveNoGradient() throws Exception {
+		Expression expression = new Expression("testcube(x) + y");
+		String message = null;
+		try {
+			expression.findGradient();
+			fail("Differentiated a registered function");
+		} catch (IllegalArgumentException e) {
+			message = e.getMessage();
+		}
+		try {
+			expression.newGradientEvaluator();
+			fail("Created a gradient evaluator for a registered function");
+		} catch (IllegalArgumentException e) {
+			assertEquals(message, e.getMessage());
+		}
+	}
+
+	@Test
+	public void registeredFunctionsOnConstantsHaveZeroDerivatives() throws Exception {
+		Expression expression = new Expression("testcounter(2) * x + testhypot(3, 4) * y");
+		double[] values = { 1.5, 0.75 };
+		double[] forward = new double[2], reverse = new double[2];
+		GradientEvaluator evaluator = expression.newGradientEvaluator();
+		evaluator.evaluateForward(values, forward);
+		evaluator.evaluateReverse(values, reverse);
+		assertArrayEquals(new double[] { 3, 5 }, forward);
+		assertArrayEquals(new double[] { 3, 5 }, reverse);
+		Expression[] gradient = expression.findGradient();
+		assertEquals(3, gradient[0].evaluate(values));
+		assertEquals(5, gradient[1].evaluate(values));
+	}
+
+	private static void assertModesAgree(String text, double[] values, double[] expected) throws Exception {
+		GradientEvaluator evaluator = new Expression(text).newGradientEvaluator();
+		double[] forward = new double[values.length], reverse = new double[values.length];
+		evaluator.evaluateForward(values, forward);
+		evaluator.evaluateReverse(values, reverse);
+		assertArrayEquals(expected, forward, text);
+		assertArrayEquals(expected, reverse, text);
+	}
+
+}
@@ -0,0 +1,66 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// Computing only the dirty nodes must give the same bits as evaluating the whole expression
+public class IncrementalEvaluatorTest {
+
+	@Test
+	public void updatesMatchFullEvaluations() throws Exception {
+		CompiledExpressionTest.registerFunctions();
+		Random random = new Random(18);
+		for (int i = 0; i < 200; i++) {
+			Expression expression = new Expression(CompiledExpressionTest.randomExpression(random, 1 + random.nextInt(6)));
+			int variableCount = expression.getVariables().size();
+			if (variableCount == 0)
+				continue;
+			IncrementalEvaluator evaluator = new IncrementalEvaluator(expression);
+			double[] values = CompiledExpressionTest.randomValues(random, variableCount);
+			evaluator.setAll(values);
+			for (int update = 0; update < 10; update++) {
+				assertEquals(Double.doubleToLongBits(expression.evaluate(values)), Double.doubleToLongBits(evaluator.evaluate()), expression.toString());
+				// One or several variables change between evaluations
+				int changes = 1 + random.nextInt(variableCount);
+				for (int change = 0; change < changes; change++) {
+					int slot = random.nextInt(variableCount);
+					values[slot] = random.nextDouble() * 10 - 5;
+					evaluator.set(slot, values[slot]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void unchangedValuesRecomputeNothing() throws Exception {
+		IncrementalEvaluator evaluator = new IncrementalEvaluator(new Expression("sin(x) * cos(x) + y"));
+		evaluator.set("x", 1).set("y", 2).evaluate();
+		evaluator.set("x", 1);
+		evaluator.evaluate();
+		assertEquals(0, evaluator.getLastRecomputedCount());
+		evaluator.set("y", 3);
+		assertEquals(Math.sin(1) * Math.cos(1) + 3, evaluator.evaluate());
+		assertEquals(1, evaluator.getLastRecomputedCount());
+	}
+
+	@Test
+	public void variablesAreCheckedLikeBindings() throws Exception {
+		IncrementalEvaluator evaluator = new IncrementalEvaluator(new Expression("x + y * z"));
+		evaluator.set("y", 1);
+		try {
+			evaluator.evaluate();
+			fail("Evaluated without values for every variable");
+		} catch (Exception e) {
+			assertEquals("Missing values for variables!: [x,z]", e.getMessage());
+		}
+		try {
+			evaluator.set("w", 1);
+			fail("Set a unknown variable");
+		} catch (Exception e) {
+			assertEquals("Unknown variable!: w", e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+// Evaluating in parallel must write exactly the values a single threaded batch writes, for every pool size and chunk size
+public class ParallelEvaluationTest {
+
+	private static final int[] POOL_SIZES = { 1, 2, 3, 8 };
+	private static final int[] GRANULARITIES = { 1, 7, 64, 1000, 100000 };
+	// Lengths that the granularities above don't divide
+	private static final int[] LENGTHS = { 0, 1, 13, 999, 10007 };
+
+	@Test
+	public void parallelMatchesSequentialBatches() throws Exception {
+		Random random = new Random(11);
+		Expression expression = new Expression("sin(x) * y - ln(z) / (x + 1) + max(x, y) ^ 2");
+		double[][] columns = randomColumns(random, 3, 10007);
+		for (int poolSize : POOL_SIZES) {
+			ForkJoinPool pool = new ForkJoinPool(poolSize);
+			try {
+				for (int granularity : GRANULARITIES)
+					for (int length : LENGTHS) {
+						int offset = (columns[0].length - length) / 2;
+						double[] expected = new double[columns[0].length], actual = new double[columns[0].length];
+						expression.evaluate(columns, expected, offset, length);
+						expression.evaluateParallel(columns, actual, offset, length, pool, granularity);
+						assertBitsEqual(expected, actual, "pool=" + poolSize + " granularity=" + granularity + " length=" + length);
+					}
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	@Test
+	public void expressionsAreSafeToShareBetweenThreads() throws Exception {
+		// Many threads evaluate, minimize and print the same expression at once while it lazily builds its tree and programs
+		final Expression expression = new Expression("sqrt(x * x + y * y) - cos(x) * 3 + x / y");
+		final double[][] columns = randomColumns(new Random(13), 2, 5000);
+		final double[] expected = new double[5000];
+		expression.evaluate(columns, expected, 0, expected.length);
+		final String minimized = expression.minimizeExpression().toString();
+		ExecutorService threads = Executors.newFixedThreadPool(8);
+		try {
+			ArrayList<Future<double[]>> results = new ArrayList<Future<double[]>>();
+			for (int i = 0; i < 32; i++) {
+				final Expression shared = i % 2 == 0 ? expression : expression.clone();
+				results.add(threads.submit(new Callable<double[]>() {
+					public double[] call() throws Exception {
+						assertEquals(minimized, shared.minimizeExpression().toString());
+						double[] output = new double[expected.length];
+						shared.evaluateParallel(columns, output, 0, output.length, ForkJoinPool.commonPool(), 100);
+						for (int row = 0; row < 100; row++)
+							assertEquals(Double.doubleToLongBits(expected[row]), Double.doubleToLongBits(shared.evaluate(new double[] { columns[0][row], columns[1][row] })));
+						return output;
+					}
+				}));
+			}
+			for (Future<double[]> result : results)
+				assertBitsEqual(expected, result.get(), "shared expression");
+		} finally {
+			threads.shutdown();
+			threads.awaitTermination(1, TimeUnit.MINUTES);
+		}
+	}
+
+	private static double[][] randomColumns(Random random, int count, int length) {
+		double[][] columns = new double[count][length];
+		for (double[] column : columns)
+			for (int row = 0; row < length; row++)
+				column[row] = random.nextInt(50) == 0 ? Double.NaN : random.nextDouble() * 10 - 5;
+		return columns;
+	}
+
+	private static void assertBitsEqual(double[] expected, double[] actual, String message) {
+		long[] expectedBits = new long[expected.length], actualBits = new long[actual.length];
+		for (int i = 0; i < expected.length; i++)
+			expectedBits[i] = Double.doubleToLongBits(expected[i]);
+		for (int i = 0; i < actual.length; i++)
+			actualBits[i] = Double.doubleToLongBits(actual[i]);
+		assertArrayEquals(expectedBits, actualBits, message);
+	}
+
+}
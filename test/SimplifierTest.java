@@ -0,0 +1,44 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+// Minimizing must not change what a expression evaluates to, a undefined result stays undefined
+public class SimplifierTest {
+
+	@Test
+	public void minimizeKeepsNaNConstants() throws Exception {
+		// 0 / (x - x) folds into a NaN constant, which has to stay in the sum
+		Expression expression = new Expression("2 + 0/(x-x) - a");
+		Expression minimized = expression.minimizeExpression();
+		double[] values = { 1.5, 4 };
+		assertTrue(Double.isNaN(expression.evaluate(values)));
+		assertTrue(Double.isNaN(minimized.evaluate(values)), minimized.getOriginalExpression());
+		String[] sums = { "y + asin(9) + 2 * y", "x - ln(0 - 1) - 3", "sqrt(0 - 4) - x + x" };
+		for (String sum : sums)
+			assertTrue(Double.isNaN(new Expression(sum).minimizeExpression().evaluate(values)), sum);
+	}
+
+	@Test
+	public void derivativesWithUndefinedTermsStayUndefined() throws Exception {
+		// The derivative of max(u, v) is undefined where u = v, here everywhere, so its raw derivative has a 0/0 term
+		// Simplifying used to drop it and give a finite value that matches neither side of the max
+		Expression expression = new Expression("acos(max(v1/(1^9), v1) - tan(cos(v1))*min(asin(v0), ln(v1)))");
+		double[] values = { 0.987, 0.666 };
+		double[] gradient = new double[2];
+		expression.newGradientEvaluator().evaluateReverse(values, gradient);
+		double derivative = expression.findDerivative("v1").evaluate(values);
+		assertTrue(Double.isNaN(derivative) || Math.abs(derivative - gradient[0]) < 1e-9, derivative + " != " + gradient[0]);
+	}
+
+	@Test
+	public void derivativesMatchTheGradient() throws Exception {
+		Expression expression = new Expression("x * sin(y) - ln(x) / y + max(x, 2 * y)");
+		double[] values = { 1.25, 0.5 };
+		double[] gradient = new double[2];
+		expression.newGradientEvaluator().evaluateReverse(values, gradient);
+		assertEquals(gradient[0], expression.findDerivative("x").evaluate(values), 1e-12);
+		assertEquals(gradient[1], expression.findDerivative("y").evaluate(values), 1e-12);
+	}
+
+}
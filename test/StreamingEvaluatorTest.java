@@ -0,0 +1,97 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Streaming the rows through files must give the same results as evaluating them all in memory
+public class StreamingEvaluatorTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void streamedResultsMatchBatches() throws Exception {
+		Expression expression = new Expression("x * sin(y) - sqrt(x) / (y + 2)");
+		int[] rowCounts = { 1, 7, 10007 };
+		int[] chunkSizes = { 1, 3, 1000, 1 << 20 };
+		Random random = new Random(17);
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			for (int rows : rowCounts) {
+				double[][] columns = new double[2][rows];
+				for (double[] column : columns)
+					for (int row = 0; row < rows; row++)
+						column[row] = random.nextDouble() * 10 - 3;
+				Path[] inputs = { this.write("x" + rows, columns[0]), this.write("y" + rows, columns[1]) };
+				double[] expected = new double[rows];
+				expression.evaluate(columns, expected);
+				for (int chunkRows : chunkSizes) {
+					Path output = this.directory.resolve("output");
+					assertEquals(rows, StreamingEvaluator.evaluate(expression, inputs, output, chunkRows));
+					assertBitsEqual(expected, this.read(output));
+					assertEquals(rows, StreamingEvaluator.evaluateParallel(expression, inputs, output, chunkRows, pool));
+					assertBitsEqual(expected, this.read(output));
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void inputsOfDifferentLengthsAreRejected() throws Exception {
+		Path[] inputs = { this.write("x", new double[] { 1, 2, 3 }), this.write("y", new double[] { 1, 2 }) };
+		try {
+			StreamingEvaluator.evaluate(new Expression("x + y"), inputs, this.directory.resolve("output"));
+			fail("Evaluated inputs of different lengths");
+		} catch (Exception e) {
+			assertEquals("The input files must have the same number of doubles!: " + inputs[1], e.getMessage());
+		}
+	}
+
+	@Test
+	public void chunksOverTheBufferLimitAreRejected() throws Exception {
+		Expression expression = new Expression("x + 1");
+		Path[] inputs = { this.write("x", new double[] { 1, 2, 3 }) };
+		Path output = this.directory.resolve("output");
+		int[] chunkSizes = { 0, StreamingEvaluator.MAX_CHUNK_ROWS + 1, Integer.MAX_VALUE };
+		for (int chunkRows : chunkSizes) {
+			try {
+				StreamingEvaluator.evaluate(expression, inputs, output, chunkRows);
+				fail("Evaluated with a chunk of " + chunkRows + " rows");
+			} catch (Exception e) {
+				assertEquals("The chunk size must be between 1 and " + StreamingEvaluator.MAX_CHUNK_ROWS + " rows!: " + chunkRows, e.getMessage());
+			}
+		}
+		assertEquals(3, StreamingEvaluator.evaluate(expression, inputs, output, StreamingEvaluator.MAX_CHUNK_ROWS));
+		assertBitsEqual(new double[] { 2, 3, 4 }, this.read(output));
+	}
+
+	private Path write(String name, double[] values) throws Exception {
+		ByteBuffer bytes = ByteBuffer.allocate(values.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		bytes.asDoubleBuffer().put(values);
+		return Files.write(this.directory.resolve(name), bytes.array());
+	}
+
+	private double[] read(Path file) throws Exception {
+		ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+		double[] values = new double[bytes.remaining() / Double.BYTES];
+		bytes.asDoubleBuffer().get(values);
+		return values;
+	}
+
+	private static void assertBitsEqual(double[] expected, double[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++)
+			assertEquals(Double.doubleToLongBits(expected[i]), Double.doubleToLongBits(actual[i]), "row " + i);
+	}
+
+}